@@ -0,0 +1,84 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package org.javastack.fontmetrics.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.javastack.fontmetrics.SimpleFontMetrics;
+import org.javastack.fontmetrics.SimpleFontMetrics.IndexedFontMetrics;
+import org.javastack.fontmetrics.SimpleFontMetrics.IndexedFontMetrics.Lookup;
+import org.javastack.fontmetrics.SimpleFontMetrics.SystemFontMetrics;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * IndexedFontMetrics by table coverage (ranges short, selected or all) and lookup structure, with
+ * the mixed-script text; tables are exported with SystemFontMetrics on setup
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Benchmark)
+public class CoverageBenchmark {
+	@Param({
+			"short", "selected", "all"
+	})
+	public String coverage;
+
+	@Param
+	public Lookup lookup;
+
+	@Param({
+			"64"
+	})
+	public int length;
+
+	private IndexedFontMetrics metrics;
+	private String text;
+
+	@Setup
+	public void setup() throws IOException {
+		final SystemFontMetrics sys = SystemFontMetrics.getDefaultInstance();
+		if (sys == null) {
+			throw new IllegalStateException("SystemFontMetrics not available (needed to export tables)");
+		}
+		final File file = File.createTempFile("fontmetrics-" + coverage + "-", ".bin");
+		try {
+			sys.exportFile(SimpleFontMetrics.loadRanges(coverage), file.getAbsolutePath());
+			metrics = IndexedFontMetrics.importFile(file, lookup);
+		} finally {
+			file.delete();
+		}
+		text = Script.MIXED.text(length);
+	}
+
+	@Benchmark
+	public int widthOf() {
+		return metrics.widthOf(text);
+	}
+}
@@ -0,0 +1,58 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package org.javastack.fontmetrics.benchmarks;
+
+import java.util.Random;
+
+/**
+ * Script mix of benchmark texts
+ */
+public enum Script {
+	ASCII(0x20, 0x7E),
+	LATIN1(0xA0, 0xFF),
+	CYRILLIC(0x0410, 0x044F),
+	CJK(0x4E00, 0x9FFF),
+	EMOJI(0x1F600, 0x1F64F), // Supplementary (surrogate pairs)
+	MIXED(0, 0);
+
+	private final int lower;
+	private final int upper;
+
+	private Script(final int lower, final int upper) {
+		this.lower = lower;
+		this.upper = upper;
+	}
+
+	/**
+	 * Deterministic text (fixed seed), one word separator every 6 codePoints
+	 * 
+	 * @param length in codePoints
+	 * @return text
+	 */
+	public String text(final int length) {
+		final Script[] scripts = values();
+		final Random random = new Random(42);
+		final StringBuilder sb = new StringBuilder(length * 2);
+		for (int i = 0; i < length; i++) {
+			if ((i % 6) == 5) {
+				sb.append(' ');
+				continue;
+			}
+			final Script script = ((this == MIXED) ? scripts[random.nextInt(scripts.length - 1)] : this);
+			sb.appendCodePoint(script.lower + random.nextInt(script.upper - script.lower + 1));
+		}
+		return sb.toString();
+	}
+}
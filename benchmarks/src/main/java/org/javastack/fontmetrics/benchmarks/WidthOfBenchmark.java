@@ -0,0 +1,105 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package org.javastack.fontmetrics.benchmarks;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import org.javastack.fontmetrics.SimpleFontMetrics;
+import org.javastack.fontmetrics.SimpleFontMetrics.Engine;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Text width by engine, cache, script mix and length (in codePoints); results are returned to JMH,
+ * so measurement can not be removed as dead code
+ * <p>
+ * All threads share one instance: run with JMH {@code -t} to measure contention (e.g. {@code -t 1}
+ * and {@code -t 4}).
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Benchmark)
+public class WidthOfBenchmark {
+	@Param({
+			"INDEXED", "SYSTEM", "HYBRID"
+	})
+	public Engine engine;
+
+	/**
+	 * Max chars of {@link SimpleFontMetrics.Builder#cache(int)}, 0 without cache
+	 */
+	@Param({
+			"0", "4096"
+	})
+	public int cache;
+
+	@Param
+	public Script script;
+
+	@Param({
+			"8", "64", "1024"
+	})
+	public int length;
+
+	private SimpleFontMetrics metrics;
+	private String text;
+	private char[] chars;
+	private byte[] utf8;
+	private ByteBuffer direct;
+
+	@Setup
+	public void setup() {
+		metrics = SimpleFontMetrics.builder().engine(engine).cache(cache).build();
+		text = script.text(length);
+		chars = text.toCharArray();
+		utf8 = text.getBytes(StandardCharsets.UTF_8);
+		direct = ByteBuffer.allocateDirect(utf8.length);
+		direct.put(utf8).flip();
+	}
+
+	@Benchmark
+	public int widthOfString() {
+		return metrics.widthOf(text);
+	}
+
+	@Benchmark
+	public int widthOfChars() {
+		return metrics.widthOf(chars, 0, chars.length);
+	}
+
+	@Benchmark
+	public int widthOfUtf8() {
+		return metrics.widthOf(utf8, 0, utf8.length);
+	}
+
+	@Benchmark
+	public int widthOfDirectBuffer() {
+		return metrics.widthOf(direct);
+	}
+}
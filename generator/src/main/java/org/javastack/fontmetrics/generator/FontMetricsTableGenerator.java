@@ -0,0 +1,130 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package org.javastack.fontmetrics.generator;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+/**
+ * Generate Java source holding a width table (as written by
+ * {@code SimpleFontMetrics.SystemFontMetrics#exportFile(List, String)}), so it can be loaded
+ * without resource I/O. Build-time tool only, run before compile by the {@code generate-table}
+ * profile of fontmetrics (not part of the library jar).
+ * <p>
+ * Table bytes are stored as ISO-8859-1 string constants (one char per byte, octal escapes), split
+ * in chunks that stay well below the 65535 bytes limit of a constant pool entry; each chunk costs a
+ * few bytes of static initializer, far from the 64KB method limit.
+ */
+public class FontMetricsTableGenerator {
+	private static final int CHUNK_SIZE = 16384;
+	private static final int LINE_SIZE = 32;
+
+	/**
+	 * Generate source
+	 * 
+	 * @param args table file, source directory, full class name
+	 * @throws IOException if error
+	 */
+	public static void main(final String[] args) throws IOException {
+		if (args.length != 3) {
+			// Runs inside the Maven JVM (exec:java), never exit
+			throw new IllegalArgumentException("Usage: " + FontMetricsTableGenerator.class.getName() //
+					+ " <table-file> <source-dir> <class-name>");
+		}
+		final File out = generate(new File(args[0]), new File(args[1]), args[2]);
+		System.out.println("Generated: " + out);
+	}
+
+	public static File generate(final File table, final File sourceDir, final String className)
+			throws IOException {
+		final byte[] data = Files.readAllBytes(table.toPath());
+		final int dot = className.lastIndexOf('.');
+		final String packageName = ((dot < 0) ? null : className.substring(0, dot));
+		final String simpleName = className.substring(dot + 1);
+		final File dir = ((packageName == null) //
+				? sourceDir //
+				: new File(sourceDir, packageName.replace('.', File.separatorChar)));
+		dir.mkdirs();
+		final File file = new File(dir, simpleName + ".java");
+		final PrintWriter out = new PrintWriter(new OutputStreamWriter( //
+				Files.newOutputStream(file.toPath()), StandardCharsets.US_ASCII));
+		try {
+			writeSource(out, packageName, simpleName, table.getName(), data);
+		} finally {
+			out.close();
+		}
+		return file;
+	}
+
+	private static final void writeSource(final PrintWriter out, final String packageName,
+			final String simpleName, final String tableName, final byte[] data) {
+		out.print("/*\n" //
+				+ " * Licensed under the Apache License, Version 2.0 (the \"License\");\n" //
+				+ " * you may not use this file except in compliance with the License.\n" //
+				+ " * You may obtain a copy of the License at\n" //
+				+ " *\n" //
+				+ " * http://www.apache.org/licenses/LICENSE-2.0\n" //
+				+ " *\n" //
+				+ " * Unless required by applicable law or agreed to in writing, software\n" //
+				+ " * distributed under the License is distributed on an \"AS IS\" BASIS,\n" //
+				+ " * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.\n" //
+				+ " * See the License for the specific language governing permissions and\n" //
+				+ " * limitations under the License.\n" //
+				+ " *\n" //
+				+ " */\n");
+		if (packageName != null) {
+			out.print("package " + packageName + ";\n\n");
+		}
+		out.print("import java.nio.charset.StandardCharsets;\n\n");
+		out.print("// Generated by " + FontMetricsTableGenerator.class.getSimpleName() //
+				+ " from " + tableName + ", do not edit\n");
+		out.print("final class " + simpleName + " {\n");
+		out.print("\tstatic final int LENGTH = " + data.length + ";\n");
+		out.print("\tprivate static final String[] CHUNKS = {\n");
+		for (int chunk = 0; chunk < data.length; chunk += CHUNK_SIZE) {
+			final int chunkEnd = Math.min(chunk + CHUNK_SIZE, data.length);
+			for (int line = chunk; line < chunkEnd; line += LINE_SIZE) {
+				final int lineEnd = Math.min(line + LINE_SIZE, chunkEnd);
+				out.print((line == chunk) ? "\t\t\t\"" : "\t\t\t\t\t+ \"");
+				for (int i = line; i < lineEnd; i++) {
+					final int b = data[i] & 0xFF;
+					out.print('\\');
+					out.print((char) ('0' + ((b >>> 6) & 7)));
+					out.print((char) ('0' + ((b >>> 3) & 7)));
+					out.print((char) ('0' + (b & 7)));
+				}
+				out.print((lineEnd == chunkEnd) ? "\",\n" : "\"\n");
+			}
+		}
+		out.print("\t};\n\n");
+		out.print("\tprivate " + simpleName + "() {\n");
+		out.print("\t}\n\n");
+		out.print("\tstatic byte[] toByteArray() {\n");
+		out.print("\t\tfinal byte[] table = new byte[LENGTH];\n");
+		out.print("\t\tint offset = 0;\n");
+		out.print("\t\tfor (final String chunk : CHUNKS) {\n");
+		out.print("\t\t\tfinal byte[] b = chunk.getBytes(StandardCharsets.ISO_8859_1);\n");
+		out.print("\t\t\tSystem.arraycopy(b, 0, table, offset, b.length);\n");
+		out.print("\t\t\toffset += b.length;\n");
+		out.print("\t\t}\n");
+		out.print("\t\treturn table;\n");
+		out.print("\t}\n");
+		out.print("}\n");
+	}
+}
@@ -0,0 +1,192 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package org.javastack.fontmetrics;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.lang.ref.SoftReference;
+import java.net.URL;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.javastack.fontmetrics.SimpleFontMetrics.FontMetricsHelper;
+import org.javastack.fontmetrics.SimpleFontMetrics.IndexedFontMetrics;
+import org.javastack.fontmetrics.SimpleFontMetrics.IndexedFontMetrics.Lookup;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Width tables by font family, style and size, loaded on first request and shared between threads.
+ * <p>
+ * Tables are registered explicitly or found in classpath as
+ * {@code /fontmetrics/<family>-<style>-<size>.bin} (family in lower case without spaces, style
+ * plain, bold, italic or bolditalic), e.g. {@code /fontmetrics/dejavusans-bold-110.bin}. Verdana
+ * plain 110 is the default table ({@link IndexedFontMetrics#getDefaultInstance()}). Loaded tables
+ * are softly referenced, so tables no longer used can be reclaimed (and are loaded again on next
+ * request), or dropped explicitly with {@link #unload(String, int, int)}.
+ */
+public class FontMetricsRegistry {
+	public static final int PLAIN = 0;
+	public static final int BOLD = 1;
+	public static final int ITALIC = 2;
+	private static final String RESOURCE_PREFIX = "/fontmetrics/";
+	private static final Logger log = LoggerFactory.getLogger(FontMetricsRegistry.class);
+
+	private final Lookup lookup;
+	private final ConcurrentHashMap<String, Entry> entries = new ConcurrentHashMap<String, Entry>();
+
+	private static class Holder {
+		static final FontMetricsRegistry INSTANCE = new FontMetricsRegistry(Lookup.PAGED);
+	}
+
+	public static FontMetricsRegistry getInstance() {
+		return Holder.INSTANCE;
+	}
+
+	/**
+	 * Create registry
+	 * 
+	 * @param lookup structure to build for loaded tables
+	 */
+	public FontMetricsRegistry(final Lookup lookup) {
+		this.lookup = lookup;
+	}
+
+	public void register(final String family, final int style, final int size, final URL table) {
+		entries.put(keyOf(family, style, size), new Entry(table));
+	}
+
+	public void register(final String family, final int style, final int size, final File table)
+			throws IOException {
+		register(family, style, size, table.toURI().toURL());
+	}
+
+	/**
+	 * Get metrics, loading table on first request
+	 * 
+	 * @param family font family
+	 * @param style {@link #PLAIN}, {@link #BOLD}, {@link #ITALIC} or {@link #BOLD} | {@link #ITALIC}
+	 * @param size font size
+	 * @return metrics
+	 * @throws FileNotFoundException if table is not registered nor found in classpath
+	 * @throws IOException if error loading table
+	 */
+	public FontMetricsHelper get(final String family, final int style, final int size) throws IOException {
+		final String key = keyOf(family, style, size);
+		Entry entry = entries.get(key);
+		if (entry == null) {
+			final URL url = FontMetricsRegistry.class.getResource(RESOURCE_PREFIX + key + ".bin");
+			if (url == null) {
+				if (!isDefault(family, style, size)) {
+					throw new FileNotFoundException("Table not found: " + key);
+				}
+			}
+			final Entry newEntry = new Entry(url);
+			entry = entries.putIfAbsent(key, newEntry);
+			if (entry == null) {
+				entry = newEntry;
+			}
+		}
+		return entry.get();
+	}
+
+	/**
+	 * Drop loaded table (registration is kept, table will be loaded again on next request)
+	 * 
+	 * @param family font family
+	 * @param style font style
+	 * @param size font size
+	 * @return true if table was loaded
+	 */
+	public boolean unload(final String family, final int style, final int size) {
+		final Entry entry = entries.get(keyOf(family, style, size));
+		return (entry != null) && entry.unload();
+	}
+
+	public void unloadAll() {
+		for (final Entry entry : entries.values()) {
+			entry.unload();
+		}
+	}
+
+	private static final boolean isDefault(final String family, final int style, final int size) {
+		return family.equalsIgnoreCase(SimpleFontMetrics.FONT_NAME) //
+				&& (style == PLAIN) && (size == SimpleFontMetrics.FONT_SIZE);
+	}
+
+	private static final String keyOf(final String family, final int style, final int size) {
+		final String name = family.replace(" ", "").toLowerCase(Locale.ROOT);
+		final String styleName;
+		switch (style) {
+			case PLAIN:
+				styleName = "plain";
+				break;
+			case BOLD:
+				styleName = "bold";
+				break;
+			case ITALIC:
+				styleName = "italic";
+				break;
+			case (BOLD | ITALIC):
+				styleName = "bolditalic";
+				break;
+			default:
+				throw new IllegalArgumentException("Invalid style: " + style);
+		}
+		return name + "-" + styleName + "-" + size;
+	}
+
+	private final class Entry {
+		private final URL url; // null for default table
+		private volatile SoftReference<FontMetricsHelper> ref = null;
+
+		Entry(final URL url) {
+			this.url = url;
+		}
+
+		FontMetricsHelper get() throws IOException {
+			final SoftReference<FontMetricsHelper> r = ref;
+			FontMetricsHelper metrics = ((r == null) ? null : r.get());
+			if (metrics != null) {
+				return metrics;
+			}
+			synchronized (this) {
+				metrics = ((ref == null) ? null : ref.get());
+				if (metrics == null) {
+					metrics = load();
+					ref = new SoftReference<FontMetricsHelper>(metrics);
+				}
+				return metrics;
+			}
+		}
+
+		private FontMetricsHelper load() throws IOException {
+			if (url == null) {
+				return IndexedFontMetrics.getDefaultInstance();
+			}
+			final long begin = System.currentTimeMillis();
+			final IndexedFontMetrics metrics = IndexedFontMetrics.importFile(url, lookup);
+			log.info("Loaded table: " + url + " (" + (System.currentTimeMillis() - begin) + "ms)");
+			return metrics;
+		}
+
+		synchronized boolean unload() {
+			final boolean loaded = ((ref != null) && (ref.get() != null));
+			ref = null;
+			return loaded;
+		}
+	}
+}
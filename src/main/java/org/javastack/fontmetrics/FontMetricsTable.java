@@ -0,0 +1,83 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package org.javastack.fontmetrics;
+
+import java.nio.charset.StandardCharsets;
+
+// Generated by FontMetricsTableGenerator from fontmetrics.bin, do not edit
+final class FontMetricsTable {
+	static final int LENGTH = 1440;
+	private static final String[] CHUNKS = {
+			"\000\000\000\011\000\000\000\040\000\000\000\177\000\000\000\240\000\000\000\377\000\000\001\000\000\000\001\177\000\000\001\200"
+					+ "\000\000\002\117\000\000\003\160\000\000\003\377\000\000\004\000\000\000\004\377\000\000\005\000\000\000\005\057\000\000\035\000"
+					+ "\000\000\035\177\000\000\036\000\000\000\036\377\000\000\005\120\047\053\062\132\106\166\120\036\062\062\106\132\050\062\050\062"
+					+ "\106\106\106\106\106\106\106\106\106\106\062\062\132\132\132\074\156\113\113\115\125\106\077\125\123\057\062\114\075\135\122\127"
+					+ "\102\127\114\113\104\121\113\155\113\104\113\062\062\062\132\106\106\102\105\071\105\102\047\105\106\036\046\101\036\153\106\103"
+					+ "\105\105\057\071\053\106\101\132\101\101\072\106\062\106\132\156\047\053\106\106\106\106\062\106\106\156\074\107\132\062\156\106"
+					+ "\074\132\074\074\106\107\106\050\106\074\074\107\156\156\156\074\113\113\113\113\113\113\154\115\106\106\106\106\057\057\057\057"
+					+ "\125\122\127\127\127\127\127\132\127\121\121\121\121\104\103\104\102\102\102\102\102\102\151\071\102\102\102\102\036\036\036\036"
+					+ "\103\106\103\103\103\103\103\132\103\106\106\106\106\101\105\101\113\102\113\102\113\102\115\071\115\071\115\071\115\071\125\107"
+					+ "\125\105\106\102\106\102\106\102\106\102\106\102\125\105\125\105\125\105\125\105\123\106\123\106\057\036\057\036\057\036\057\036"
+					+ "\057\036\140\104\062\046\114\101\101\075\036\075\036\075\041\075\062\076\036\122\106\122\106\122\106\120\122\106\127\103\127\103"
+					+ "\127\103\166\154\114\057\114\057\114\057\113\071\113\071\113\071\113\071\104\053\104\053\104\053\121\106\121\106\121\106\121\106"
+					+ "\121\106\121\105\155\132\104\101\104\113\072\113\072\113\072\041\156\156\156\156\156\156\156\156\156\156\156\156\156\156\156\123"
+					+ "\156\156\106\156\156\156\156\156\156\156\156\156\156\156\156\156\131\103\156\156\156\156\156\156\156\156\156\156\156\156\156\123"
+					+ "\111\156\156\156\156\156\156\156\156\156\156\156\156\156\156\156\156\156\156\156\156\156\156\156\156\156\156\156\156\156\156\156"
+					+ "\156\156\156\156\156\156\156\156\156\156\156\156\156\156\156\156\156\156\156\156\156\156\156\156\156\156\156\156\156\156\156\156"
+					+ "\156\156\156\156\156\156\156\156\156\156\113\102\154\151\127\103\156\156\156\156\156\156\156\156\156\156\156\156\156\156\156\156"
+					+ "\156\156\156\156\156\156\156\156\113\071\104\053\156\156\156\156\156\156\156\156\156\156\156\156\156\156\156\156\156\156\156\156"
+					+ "\156\156\156\156\156\156\156\046\156\156\156\156\156\156\156\156\156\156\156\156\156\156\156\156\156\156\156\156\156\156\156\156"
+					+ "\156\156\156\156\156\156\156\156\156\156\156\156\156\156\062\156\156\156\156\156\106\106\113\062\123\140\073\156\141\156\123\144"
+					+ "\036\113\113\076\115\106\113\123\127\057\114\113\135\122\107\127\123\102\156\112\104\104\132\113\140\132\057\104\105\070\106\036"
+					+ "\105\105\104\101\103\070\062\106\105\036\101\101\106\101\067\103\106\105\070\105\067\105\127\101\132\131\036\105\103\105\131\156"
+					+ "\156\156\156\156\156\156\116\156\156\156\156\156\156\156\156\156\156\156\156\156\156\156\156\156\156\156\156\156\156\156\156\156"
+					+ "\156\156\156\156\156\156\156\156\156\156\156\156\156\156\156\156\156\106\127\076\115\113\057\057\062\173\171\132\114\123\104\123"
+					+ "\113\113\113\076\122\106\153\104\123\123\114\121\135\123\127\123\102\115\104\104\132\113\124\116\161\163\126\145\113\115\162\116"
+					+ "\102\104\101\064\104\102\130\072\106\106\101\104\115\106\103\106\105\073\067\101\134\101\107\103\140\142\106\127\077\074\134\102"
+					+ "\156\102\106\064\074\071\036\036\046\145\145\106\101\106\101\106\156\156\156\156\156\156\156\156\156\156\156\156\156\156\156\156"
+					+ "\156\156\156\156\156\156\156\156\177\162\156\156\154\131\156\156\156\156\156\156\156\156\156\106\156\156\156\156\156\156\156\156"
+					+ "\076\064\076\064\156\156\153\130\156\156\114\101\114\101\156\156\156\156\123\106\156\156\156\156\127\104\156\156\104\067\104\101"
+					+ "\104\101\113\101\144\122\156\156\116\103\116\106\141\114\141\114\156\156\156\156\156\156\156\156\156\156\156\156\156\156\156\156"
+					+ "\156\156\156\156\156\156\156\156\123\102\156\156\156\156\156\156\156\156\156\156\156\156\156\156\127\103\156\156\156\156\156\156"
+					+ "\156\156\156\156\156\156\076\064\156\156\156\156\156\156\156\156\156\156\156\156\156\156\156\156\156\156\156\156\156\156\156\156"
+					+ "\156\156\156\156\156\156\156\156\156\156\127\105\155\132\156\156\156\156\156\156\156\156\156\156\156\156\156\156\156\156\156\156"
+					+ "\156\156\156\156\156\156\156\156\156\156\156\156\156\156\156\156\156\156\156\156\156\156\156\156\156\156\156\156\156\156\156\156"
+					+ "\156\156\156\156\156\156\156\156\156\156\156\156\156\156\156\156\156\156\156\156\156\156\156\156\156\156\156\156\156\156\156\156"
+					+ "\156\156\156\156\156\156\156\156\156\156\156\156\156\156\156\156\156\156\156\156\156\156\156\156\156\156\156\156\156\156\156\156"
+					+ "\156\156\156\156\156\156\156\156\156\156\156\156\156\156\156\156\156\156\156\156\156\156\156\156\156\156\156\156\156\156\156\156"
+					+ "\156\156\156\156\156\156\156\156\156\156\156\156\156\156\156\156\156\156\156\156\156\156\156\156\156\156\156\156\156\156\156\156"
+					+ "\156\156\156\156\156\156\156\156\156\156\156\156\156\156\156\156\156\156\156\156\156\156\156\156\156\156\156\156\156\156\156\156"
+					+ "\156\156\156\156\156\156\156\156\156\156\156\156\156\156\156\156\156\156\156\156\156\156\156\156\156\156\156\156\156\156\156\156"
+					+ "\156\156\156\156\156\156\156\156\156\156\156\156\156\156\156\156\156\156\156\156\156\156\156\156\156\156\156\156\156\156\156\156"
+					+ "\155\132\155\132\155\132\156\156\156\156\156\156\156\156\156\156\156\156\156\156\156\156\156\156\156\156\156\156\156\156\113\156"
+					+ "\113\102\113\102\113\102\113\102\113\102\113\102\113\102\113\102\113\102\113\102\113\102\113\102\106\102\106\102\106\102\106\102"
+					+ "\106\102\106\102\106\102\106\102\057\036\057\036\127\103\127\103\127\103\127\103\127\103\127\103\127\103\131\103\131\103\131\103"
+					+ "\131\103\131\103\121\106\121\106\123\111\123\111\123\111\123\111\123\111\104\101\104\101\104\101\104\101\156\156\156\156\156\156",
+	};
+
+	private FontMetricsTable() {
+	}
+
+	static byte[] toByteArray() {
+		final byte[] table = new byte[LENGTH];
+		int offset = 0;
+		for (final String chunk : CHUNKS) {
+			final byte[] b = chunk.getBytes(StandardCharsets.ISO_8859_1);
+			System.arraycopy(b, 0, table, offset, b.length);
+			offset += b.length;
+		}
+		return table;
+	}
+}
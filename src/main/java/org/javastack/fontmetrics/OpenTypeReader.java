@@ -0,0 +1,475 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package org.javastack.fontmetrics;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+import org.javastack.fontmetrics.SimpleFontMetrics.IndexedFontMetrics;
+import org.javastack.fontmetrics.SimpleFontMetrics.IndexedFontMetrics.Lookup;
+import org.javastack.fontmetrics.SimpleFontMetrics.PreciseFontMetrics;
+
+/**
+ * Width tables straight from a TrueType/OpenType font file (.ttf, .otf or .ttc), without AWT: reads
+ * {@code head} (unitsPerEm, macStyle), {@code hhea} (numberOfHMetrics), {@code hmtx} (advance
+ * widths), {@code cmap} (format 4 or 12) and {@code name} (family), and writes the same tables as
+ * {@link SimpleFontMetrics.SystemFontMetrics#exportFile(List, String, int, int)} for any size.
+ * <p>
+ * Widths are linear advances (advance * size / unitsPerEm, rounded half up); AWT may apply hinted
+ * advances, so a few widths can differ by one pixel from {@link SimpleFontMetrics.SystemFontMetrics}.
+ * Kerning ({@code kern}/{@code GPOS}) is not read.
+ */
+public class OpenTypeReader {
+	private static final int TAG_TTCF = 0x74746366; // "ttcf"
+	private static final int TAG_HEAD = 0x68656164; // "head"
+	private static final int TAG_HHEA = 0x68686561; // "hhea"
+	private static final int TAG_HMTX = 0x686D7478; // "hmtx"
+	private static final int TAG_CMAP = 0x636D6170; // "cmap"
+	private static final int TAG_NAME = 0x6E616D65; // "name"
+	private static final int NAME_FAMILY = 1;
+
+	private final ByteBuffer font; // big-endian, absolute reads only
+	private final String familyName;
+	private final int style;
+	private final int unitsPerEm;
+	private final int hmtx;
+	private final int numberOfHMetrics;
+	private final int cmapFormat;
+	private final int cmap; // offset of selected subtable
+
+	/**
+	 * Read font
+	 * 
+	 * @param font file contents (heap, direct or mapped)
+	 * @param fontIndex index of font in a collection (.ttc), 0 otherwise
+	 * @throws IOException if font is not valid
+	 */
+	public OpenTypeReader(final ByteBuffer font, final int fontIndex) throws IOException {
+		this.font = font.duplicate();
+		this.font.order(ByteOrder.BIG_ENDIAN);
+		try {
+			int offsetTable = 0;
+			if (u32(0) == TAG_TTCF) {
+				final int numFonts = u32(8);
+				if ((fontIndex < 0) || (fontIndex >= numFonts)) {
+					throw new IOException("Invalid fontIndex: " + fontIndex + " fonts=" + numFonts);
+				}
+				offsetTable = u32(12 + (fontIndex * 4));
+			}
+			final int head = findTable(offsetTable, TAG_HEAD, 54);
+			final int hhea = findTable(offsetTable, TAG_HHEA, 36);
+			this.unitsPerEm = u16(head + 18);
+			final int macStyle = u16(head + 44);
+			this.style = (macStyle & 0x3); // bit 0 bold, bit 1 italic (same as java.awt.Font)
+			this.numberOfHMetrics = u16(hhea + 34);
+			if ((unitsPerEm == 0) || (numberOfHMetrics == 0)) {
+				throw new IOException("Invalid head/hhea");
+			}
+			this.hmtx = findTable(offsetTable, TAG_HMTX, numberOfHMetrics * 4);
+			this.cmap = selectCmap(findTable(offsetTable, TAG_CMAP, 4));
+			this.cmapFormat = u16(cmap);
+			this.familyName = readFamilyName(findTable(offsetTable, TAG_NAME, 6));
+		} catch (IndexOutOfBoundsException | BufferUnderflowException | IllegalArgumentException e) {
+			// Offsets beyond font.limit(): absolute gets, position(int) and bulk get
+			throw new IOException("Truncated font", e);
+		}
+	}
+
+	/**
+	 * Map font file read-only
+	 * 
+	 * @param file font (.ttf, .otf or .ttc, first font)
+	 * @return reader
+	 * @throws IOException if error
+	 */
+	public static OpenTypeReader open(final File file) throws IOException {
+		return open(file, 0);
+	}
+
+	public static OpenTypeReader open(final File file, final int fontIndex) throws IOException {
+		FileChannel chan = null;
+		try {
+			chan = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+			// Mapping remains valid after channel is closed
+			return new OpenTypeReader(chan.map(FileChannel.MapMode.READ_ONLY, 0, chan.size()), fontIndex);
+		} finally {
+			if (chan != null) {
+				chan.close();
+			}
+		}
+	}
+
+	/**
+	 * @return family name (name ID 1)
+	 */
+	public String getFamilyName() {
+		return familyName;
+	}
+
+	/**
+	 * @return java.awt.Font style from head.macStyle (0 plain, 1 bold, 2 italic)
+	 */
+	public int getStyle() {
+		return style;
+	}
+
+	public int getUnitsPerEm() {
+		return unitsPerEm;
+	}
+
+	/**
+	 * @param codePoint to map
+	 * @return glyph index, 0 (.notdef) if not mapped
+	 */
+	public int glyphOf(final int codePoint) {
+		if (cmapFormat == 12) {
+			int low = 0;
+			int high = u32(cmap + 12) - 1;
+			while (low <= high) {
+				final int mid = (low + high) >>> 1;
+				final int group = cmap + 16 + (mid * 12);
+				if (codePoint < u32(group)) {
+					high = mid - 1;
+				} else if (codePoint > u32(group + 4)) {
+					low = mid + 1;
+				} else {
+					return u32(group + 8) + (codePoint - u32(group));
+				}
+			}
+			return 0;
+		}
+		// Format 4 (BMP only): segments sorted by endCode
+		if (codePoint > 0xFFFF) {
+			return 0;
+		}
+		final int segCount = u16(cmap + 6) >>> 1;
+		final int endCodes = cmap + 14;
+		final int startCodes = endCodes + (segCount * 2) + 2;
+		final int idDeltas = startCodes + (segCount * 2);
+		final int idRangeOffsets = idDeltas + (segCount * 2);
+		int low = 0;
+		int high = segCount - 1;
+		while (low < high) {
+			final int mid = (low + high) >>> 1;
+			if (u16(endCodes + (mid * 2)) < codePoint) {
+				low = mid + 1;
+			} else {
+				high = mid;
+			}
+		}
+		final int seg = low;
+		final int start = u16(startCodes + (seg * 2));
+		if ((codePoint < start) || (codePoint > u16(endCodes + (seg * 2)))) {
+			return 0;
+		}
+		final int idDelta = u16(idDeltas + (seg * 2));
+		final int idRangeOffset = u16(idRangeOffsets + (seg * 2));
+		if (idRangeOffset == 0) {
+			return (codePoint + idDelta) & 0xFFFF;
+		}
+		final int glyph = u16(idRangeOffsets + (seg * 2) + idRangeOffset + ((codePoint - start) * 2));
+		return ((glyph == 0) ? 0 : ((glyph + idDelta) & 0xFFFF));
+	}
+
+	/**
+	 * @param codePoint to measure
+	 * @return advance width in font units
+	 */
+	public int advanceWidthOf(final int codePoint) {
+		final int glyph = Math.min(glyphOf(codePoint), numberOfHMetrics - 1);
+		return u16(hmtx + (glyph * 4));
+	}
+
+	/**
+	 * @param codePoint to measure
+	 * @param size of font (pixels)
+	 * @param fractionBits precision of result
+	 * @return fixed-point advance (0 for control codePoints)
+	 */
+	public int advanceOf(final int codePoint, final int size, final int fractionBits) {
+		if ((codePoint < 32) || isInvisible(codePoint)) {
+			return 0;
+		}
+		final long scaled = ((long) advanceWidthOf(codePoint) * size) << fractionBits;
+		final long fixed = (scaled + (unitsPerEm >>> 1)) / unitsPerEm;
+		return (int) Math.min(fixed, Integer.MAX_VALUE);
+	}
+
+	/**
+	 * @param codePoint to measure
+	 * @param size of font (pixels)
+	 * @return width, clamped to 0..127
+	 */
+	public byte widthOf(final int codePoint, final int size) {
+		return (byte) Math.min(advanceOf(codePoint, size, 0), 127);
+	}
+
+	/**
+	 * Build table
+	 * 
+	 * @param ranges of codePoints
+	 * @param size of font (pixels)
+	 * @param format {@link SimpleFontMetrics#FORMAT_V2} or {@link SimpleFontMetrics#FORMAT_V3}
+	 * @param fractionBits precision of v3 advances (0 for v2)
+	 * @return table
+	 * @throws IOException if error
+	 * @throws IllegalArgumentException if fractionBits is not valid for size, or an advance does not
+	 *             fit in a v3 table with fractionBits
+	 */
+	public ByteBuffer toByteBuffer(final List<List<Integer>> ranges, final int size, final int format,
+			final int fractionBits) throws IOException {
+		checkFormat(format, fractionBits, size);
+		if (format == SimpleFontMetrics.FORMAT_V3) {
+			return SimpleFontMetrics.toByteBufferV3(ranges, computeAdvances(ranges, size, fractionBits),
+					new int[0], fractionBits, familyName, style, size);
+		}
+		return SimpleFontMetrics.toByteBufferV2(ranges, computeWidths(ranges, size), new int[0], familyName,
+				style, size);
+	}
+
+	private static final void checkFormat(final int format, final int fractionBits, final int size) {
+		if (format == SimpleFontMetrics.FORMAT_V3) {
+			SimpleFontMetrics.checkFractionBits(fractionBits, size);
+		} else if ((format != SimpleFontMetrics.FORMAT_V2) || (fractionBits != 0)) {
+			throw new IllegalArgumentException("Invalid format: " + format + " fractionBits=" + fractionBits);
+		}
+	}
+
+	private static final int countOf(final List<List<Integer>> ranges) {
+		int count = 0;
+		for (final List<Integer> r : ranges) {
+			count += (r.get(1).intValue() - r.get(0).intValue()) + 1;
+		}
+		return count;
+	}
+
+	/**
+	 * Width (v2) of each codePoint in ranges
+	 */
+	private final byte[] computeWidths(final List<List<Integer>> ranges, final int size) {
+		final byte[] widths = new byte[countOf(ranges)];
+		int offset = 0;
+		for (final List<Integer> r : ranges) {
+			final int lower = r.get(0).intValue();
+			final int upper = r.get(1).intValue();
+			for (int codePoint = lower; codePoint <= upper; codePoint++) {
+				widths[offset++] = widthOf(codePoint, size);
+			}
+		}
+		return widths;
+	}
+
+	/**
+	 * Advance (v3) of each codePoint in ranges
+	 */
+	private final short[] computeAdvances(final List<List<Integer>> ranges, final int size,
+			final int fractionBits) {
+		final short[] advances = new short[countOf(ranges)];
+		int offset = 0;
+		for (final List<Integer> r : ranges) {
+			final int lower = r.get(0).intValue();
+			final int upper = r.get(1).intValue();
+			for (int codePoint = lower; codePoint <= upper; codePoint++) {
+				advances[offset++] = SimpleFontMetrics.toStoredAdvance(codePoint,
+						advanceOf(codePoint, size, fractionBits), fractionBits);
+			}
+		}
+		return advances;
+	}
+
+	public IndexedFontMetrics toFontMetrics(final List<List<Integer>> ranges, final int size)
+			throws IOException {
+		return IndexedFontMetrics.fromByteBuffer(toByteBuffer(ranges, size, SimpleFontMetrics.FORMAT_V2, 0),
+				Lookup.PAGED, false);
+	}
+
+	public PreciseFontMetrics toPreciseFontMetrics(final List<List<Integer>> ranges, final int size,
+			final int fractionBits) throws IOException {
+		return PreciseFontMetrics.fromByteBuffer(toByteBuffer(ranges, size, SimpleFontMetrics.FORMAT_V3,
+				fractionBits));
+	}
+
+	public void exportFile(final List<List<Integer>> ranges, final String file, final int size)
+			throws IOException {
+		exportFile(ranges, file, size, SimpleFontMetrics.FORMAT_V2, 0);
+	}
+
+	/**
+	 * Export table
+	 * 
+	 * @param ranges of codePoints
+	 * @param file output
+	 * @param size of font (pixels)
+	 * @param format {@link SimpleFontMetrics#FORMAT_V2} or {@link SimpleFontMetrics#FORMAT_V3}
+	 * @param fractionBits precision of v3 advances (0 for v2)
+	 * @throws IOException if error
+	 * @throws IllegalArgumentException if fractionBits is not valid for size, or an advance does not
+	 *             fit in a v3 table with fractionBits
+	 */
+	public void exportFile(final List<List<Integer>> ranges, final String file, final int size,
+			final int format, final int fractionBits) throws IOException {
+		checkFormat(format, fractionBits, size);
+		final boolean precise = (format == SimpleFontMetrics.FORMAT_V3);
+		final byte[] widths = (precise ? null : computeWidths(ranges, size));
+		final short[] advances = (precise ? computeAdvances(ranges, size, fractionBits) : null);
+		final WritableByteChannel out = SimpleFontMetrics.openTableFile(file);
+		try {
+			if (precise) {
+				SimpleFontMetrics.writeTableV3(out, ranges, advances, new int[0], fractionBits, //
+						familyName, style, size);
+			} else {
+				SimpleFontMetrics.writeTableV2(out, ranges, widths, new int[0], familyName, style, size);
+			}
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * Export table
+	 * 
+	 * @param args font file, size, ranges name (short, selected or all), table file
+	 * @throws IOException if error
+	 */
+	public static void main(final String[] args) throws IOException {
+		if (args.length != 4) {
+			System.err.println("Usage: " + OpenTypeReader.class.getName() //
+					+ " <font-file> <size> <ranges> <table-file>");
+			System.exit(1);
+		}
+		final long begin = System.currentTimeMillis();
+		final OpenTypeReader reader = open(new File(args[0]));
+		reader.exportFile(SimpleFontMetrics.loadRanges(args[2]), args[3], Integer.parseInt(args[1]));
+		System.out.println("Exported: " + reader.getFamilyName() + " style=" + reader.getStyle() //
+				+ " size=" + args[1] + " to " + args[3] //
+				+ " in " + (System.currentTimeMillis() - begin) + "ms");
+	}
+
+	/**
+	 * Format controls measured as zero width by AWT (ZWNJ, ZWJ, bidi marks, line/paragraph
+	 * separators and deprecated format characters)
+	 */
+	private static final boolean isInvisible(final int codePoint) {
+		return (((codePoint >= 0x200C) && (codePoint <= 0x200F)) //
+				|| ((codePoint >= 0x2028) && (codePoint <= 0x202E)) //
+				|| ((codePoint >= 0x206A) && (codePoint <= 0x206F)));
+	}
+
+	/**
+	 * @param minLength bytes read from the table at fixed offsets
+	 * @return offset of table, checked against font length
+	 */
+	private final int findTable(final int offsetTable, final int tag, final int minLength)
+			throws IOException {
+		final int numTables = u16(offsetTable + 4);
+		for (int i = 0; i < numTables; i++) {
+			final int record = offsetTable + 12 + (i * 16);
+			if (u32(record) == tag) {
+				final int offset = u32(record + 8);
+				final int length = u32(record + 12);
+				if ((length & 0xFFFFFFFFL) < minLength) {
+					throw new IOException("Invalid table: " + tagName(tag) + " length=" + length);
+				}
+				checkBounds(offset, length, tagName(tag));
+				return offset;
+			}
+		}
+		throw new IOException("Missing table: " + tagName(tag));
+	}
+
+	/**
+	 * Check that [offset, offset + length) (unsigned) is inside the font
+	 */
+	private final void checkBounds(final int offset, final int length, final String what)
+			throws IOException {
+		if (((offset & 0xFFFFFFFFL) + (length & 0xFFFFFFFFL)) > font.limit()) {
+			throw new IOException("Truncated font: " + what + " offset=" + (offset & 0xFFFFFFFFL)
+					+ " length=" + (length & 0xFFFFFFFFL) + " size=" + font.limit());
+		}
+	}
+
+	/**
+	 * Select Unicode subtable: format 12 (full repertoire) over format 4 (BMP)
+	 */
+	private final int selectCmap(final int table) throws IOException {
+		final int numTables = u16(table + 2);
+		int best = -1;
+		int bestScore = 0;
+		for (int i = 0; i < numTables; i++) {
+			final int record = table + 4 + (i * 8);
+			final int platformId = u16(record);
+			final int encodingId = u16(record + 2);
+			final int subtable = table + u32(record + 4);
+			final int format = u16(subtable);
+			final boolean unicode = ((platformId == 0) //
+					|| ((platformId == 3) && ((encodingId == 1) || (encodingId == 10))));
+			final int score = (!unicode ? 0 : (format == 12) ? 2 : (format == 4) ? 1 : 0);
+			if (score > bestScore) {
+				best = subtable;
+				bestScore = score;
+			}
+		}
+		if (best < 0) {
+			throw new IOException("Unsupported cmap (no Unicode format 4 or 12 subtable)");
+		}
+		checkBounds(best, ((bestScore == 2) ? u32(best + 4) : u16(best + 2)), "cmap subtable");
+		return best;
+	}
+
+	private final String readFamilyName(final int table) {
+		final int count = u16(table + 2);
+		final int strings = table + u16(table + 4);
+		String fallback = null;
+		for (int i = 0; i < count; i++) {
+			final int record = table + 6 + (i * 12);
+			if (u16(record + 6) != NAME_FAMILY) {
+				continue;
+			}
+			final int platformId = u16(record);
+			final byte[] buf = new byte[u16(record + 8)];
+			final ByteBuffer in = font.duplicate();
+			in.position(strings + u16(record + 10));
+			in.get(buf);
+			if ((platformId == 0) || (platformId == 3)) {
+				return new String(buf, StandardCharsets.UTF_16BE);
+			} else if ((platformId == 1) && (fallback == null)) {
+				fallback = new String(buf, StandardCharsets.ISO_8859_1);
+			}
+		}
+		return ((fallback == null) ? "" : fallback);
+	}
+
+	private static final String tagName(final int tag) {
+		return new String(new byte[] {
+				(byte) (tag >>> 24), (byte) (tag >>> 16), (byte) (tag >>> 8), (byte) tag
+		}, StandardCharsets.ISO_8859_1);
+	}
+
+	private final int u16(final int offset) {
+		return font.getShort(offset) & 0xFFFF;
+	}
+
+	private final int u32(final int offset) {
+		return font.getInt(offset);
+	}
+}
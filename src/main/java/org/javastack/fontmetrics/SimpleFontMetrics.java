@@ -18,23 +18,50 @@ import java.awt.Font;
 import java.awt.FontMetrics;
 import java.awt.Graphics;
 import java.awt.GraphicsEnvironment;
+import java.awt.font.FontRenderContext;
+import java.awt.font.TextAttribute;
+import java.awt.font.TextLayout;
 import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.Closeable;
 import java.io.File;
+import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.net.URISyntaxException;
 import java.net.URL;
 import java.net.URLConnection;
+import java.nio.BufferUnderflowException;
 import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
 import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
+import java.util.zip.CRC32;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -43,20 +70,184 @@ import org.slf4j.LoggerFactory;
 public class SimpleFontMetrics {
 	public static final String FONT_NAME = "Verdana";
 	public static final int FONT_SIZE = 110;
-	private static final String FILE_RESOURCE_INDEX_CACHE = "/fontmetrics.bin";
+	/**
+	 * System property to select the {@link Engine} of {@link #getInstance()}
+	 */
+	public static final String ENGINE_PROPERTY = "fontmetrics.engine";
+	/**
+	 * Environment variable to select the {@link Engine} of {@link #getInstance()} (system property
+	 * takes precedence)
+	 */
+	public static final String ENGINE_ENV = "FONTMETRICS_ENGINE";
+	private static final String TEST_FILE_NAME = "fontmetrics.bin";
+	/**
+	 * Table format v1: int rangeCount, rangeCount * (int lower, int upper), int widthCount, widthCount
+	 * * byte
+	 */
+	public static final int FORMAT_V1 = 1;
+	/**
+	 * Table format v2: header (int magic, short version, short headerLength, int crc32 of the rest of
+	 * file, int fontSize, int fontStyle, short nameLength, UTF-8 name, padding to 4 bytes), page
+	 * directory (int pageCount, pageCount * int page, sorted), pages (pageCount * 256 byte, -1 for
+	 * codePoints not covered), optional uniform-width spans (int spanCount, spanCount * (int start,
+	 * int end, int width), sorted, not covered by pages), optional kerning pairs (int pairCount,
+	 * pairCount * (int first, int second, int adjustment)). Byte order is given by magic (big-endian
+	 * by default).
+	 */
+	public static final int FORMAT_V2 = 2;
+	/**
+	 * Table format v3: like {@link #FORMAT_V2} with fixed-point advances, header adds short
+	 * fractionBits after the name, pages hold 256 * short (Short.MIN_VALUE for codePoints not
+	 * covered) and span widths are fixed-point, see {@link PreciseFontMetrics}
+	 */
+	public static final int FORMAT_V3 = 3;
+	/**
+	 * Fractional bits of v3 tables by default (26.6 like TrueType, max advance 511.98)
+	 */
+	public static final int DEFAULT_FRACTION_BITS = 6;
+	/**
+	 * Max fractional bits of v3 tables (max advance 127.99); one em of the font size must fit in a
+	 * short, and export fails on any larger advance (never clamped)
+	 */
+	public static final int MAX_FRACTION_BITS = 8;
+	/**
+	 * Minimum length of a constant-width run of codePoints to be stored as a span
+	 */
+	private static final int MIN_SPAN_LENGTH = 256;
+	private static final int FORMAT_MAGIC = 0x464D5442; // "FMTB"
+	/**
+	 * Table files with this suffix are written GZIP compressed (compressed tables are detected on
+	 * import, but can not be mapped)
+	 */
+	public static final String GZIP_SUFFIX = ".gz";
 	private static final Logger log = LoggerFactory.getLogger(SimpleFontMetrics.class);
 
-	private static final SimpleFontMetrics INSTANCE = new SimpleFontMetrics();
-	private FontMetricsHelper metrics = null;
+	private final FontMetricsHelper metrics;
+
+	/**
+	 * Measurement engine
+	 */
+	public static enum Engine {
+		/**
+		 * {@link #SYSTEM} if available, else {@link #INDEXED}
+		 */
+		AUTO,
+		/**
+		 * {@link SystemFontMetrics} (AWT)
+		 */
+		SYSTEM,
+		/**
+		 * {@link IndexedFontMetrics} (pure table, never touches java.awt)
+		 */
+		INDEXED,
+		/**
+		 * {@link IndexedFontMetrics} with {@link SystemFontMetrics} fallback on misses, if available
+		 */
+		HYBRID;
+	}
+
+	private static class Holder {
+		static final SimpleFontMetrics INSTANCE = builder().engine(getConfiguredEngine()).build();
+	}
 
 	public static SimpleFontMetrics getInstance() {
-		return INSTANCE;
+		return Holder.INSTANCE;
+	}
+
+	public static Builder builder() {
+		return new Builder();
+	}
+
+	private SimpleFontMetrics(final FontMetricsHelper metrics) {
+		this.metrics = metrics;
+	}
+
+	/**
+	 * Engine from system property {@value #ENGINE_PROPERTY} or environment variable
+	 * {@value #ENGINE_ENV}, default {@link Engine#AUTO}
+	 * 
+	 * @return engine
+	 */
+	public static Engine getConfiguredEngine() {
+		String value = System.getProperty(ENGINE_PROPERTY);
+		if ((value == null) || value.trim().isEmpty()) {
+			value = System.getenv(ENGINE_ENV);
+		}
+		if ((value == null) || value.trim().isEmpty()) {
+			return Engine.AUTO;
+		}
+		try {
+			return Engine.valueOf(value.trim().toUpperCase(Locale.ROOT));
+		} catch (IllegalArgumentException e) {
+			log.warn("Invalid engine: " + value + " (using " + Engine.AUTO + ")");
+			return Engine.AUTO;
+		}
 	}
 
-	private SimpleFontMetrics() {
-		metrics = SystemFontMetrics.getDefaultInstance();
-		if (metrics == null) {
-			metrics = IndexedFontMetrics.getDefaultInstance();
+	public static class Builder {
+		private Engine engine = Engine.AUTO;
+		private int cacheSize = 0;
+
+		private Builder() {
+		}
+
+		public Builder engine(final Engine engine) {
+			this.engine = engine;
+			return this;
+		}
+
+		/**
+		 * Memoize widths of strings ({@link CachedFontMetrics})
+		 * 
+		 * @param maxChars maximum sum of the length of cached strings, 0 to disable, else at least
+		 *            {@link CachedFontMetrics#MIN_CHARS}
+		 * @return this builder
+		 * @throws IllegalArgumentException if maxChars is not valid
+		 */
+		public Builder cache(final int maxChars) {
+			if ((maxChars != 0) && (maxChars < CachedFontMetrics.MIN_CHARS)) {
+				throw new IllegalArgumentException("Invalid maxChars: " + maxChars //
+						+ " (0 to disable, min " + CachedFontMetrics.MIN_CHARS + ")");
+			}
+			this.cacheSize = maxChars;
+			return this;
+		}
+
+		public SimpleFontMetrics build() {
+			FontMetricsHelper metrics = createEngine(engine);
+			if (cacheSize > 0) {
+				metrics = new CachedFontMetrics(metrics, cacheSize);
+			}
+			return new SimpleFontMetrics(metrics);
+		}
+
+		private static final FontMetricsHelper createEngine(final Engine engine) {
+			switch (engine) {
+				case SYSTEM: {
+					final FontMetricsHelper metrics = SystemFontMetrics.getDefaultInstance();
+					if (metrics == null) {
+						throw new IllegalStateException("SystemFontMetrics not available");
+					}
+					return metrics;
+				}
+				case INDEXED:
+					return IndexedFontMetrics.getDefaultInstance();
+				case HYBRID: {
+					final FontMetricsHelper metrics = SystemFontMetrics.getDefaultInstance();
+					if (metrics == null) {
+						return IndexedFontMetrics.getDefaultInstance();
+					}
+					return IndexedFontMetrics.getDefaultInstance().withFallback(metrics);
+				}
+				case AUTO:
+				default: {
+					final FontMetricsHelper metrics = SystemFontMetrics.getDefaultInstance();
+					if (metrics == null) {
+						return IndexedFontMetrics.getDefaultInstance();
+					}
+					return metrics;
+				}
+			}
 		}
 	}
 
@@ -64,27 +255,62 @@ public class SimpleFontMetrics {
 		return metrics.widthOf(input);
 	}
 
+	public int widthOf(final CharSequence input) {
+		return metrics.widthOf(input);
+	}
+
+	public int widthOf(final CharSequence input, final int start, final int end) {
+		return metrics.widthOf(input, start, end);
+	}
+
+	public int widthOf(final char[] input, final int off, final int len) {
+		return metrics.widthOf(input, off, len);
+	}
+
+	public int widthOf(final byte[] utf8, final int off, final int len) {
+		return metrics.widthOf(utf8, off, len);
+	}
+
+	public int widthOf(final ByteBuffer utf8) {
+		return metrics.widthOf(utf8);
+	}
+
 	public byte widthOf(final int codePoint) {
 		return metrics.widthOf(codePoint);
 	}
 
+	/**
+	 * Width at another font size, scaling the sum of {@link #FONT_SIZE} advances once per string
+	 * 
+	 * @param input text
+	 * @param size font size (e.g. in px)
+	 * @return width (in same units of size)
+	 */
+	public float widthOf(final CharSequence input, final float size) {
+		return (metrics.widthOf(input) * size) / FONT_SIZE;
+	}
+
+	/**
+	 * Width at another font size in fixed-point, scaling the sum of {@link #FONT_SIZE} advances once
+	 * per string (rounded half up)
+	 * 
+	 * @param input text
+	 * @param fixedSize font size in any fixed-point format (e.g. 26.6: px * 64)
+	 * @return width in same fixed-point format of size (e.g. 26.6: px * 64)
+	 */
+	public int widthOfFixed(final CharSequence input, final int fixedSize) {
+		return (int) (((metrics.widthOf(input) * (long) fixedSize) + (FONT_SIZE / 2)) / FONT_SIZE);
+	}
+
 	public static final List<List<Integer>> loadRanges(final String name) throws IOException {
-		final URL url = SimpleFontMetrics.class.getResource("/ranges." + name + ".txt");
-		InputStream is = null;
-		URLConnection conn = null;
-		try {
-			conn = url.openConnection();
-			conn.setDoOutput(false);
-			conn.setUseCaches(true);
-			conn.connect();
-			is = conn.getInputStream();
-			final int size = conn.getContentLength();
-			final byte[] buf = new byte[size];
-			is.read(buf);
-			return processRawRanges(new String(buf));
-		} finally {
-			closeSilent(is);
+		final String resource = "/ranges." + name + ".txt";
+		final URL url = SimpleFontMetrics.class.getResource(resource);
+		if (url == null) {
+			throw new FileNotFoundException("Ranges not found: " + resource);
 		}
+		final ByteBuffer bb = readResource(url);
+		return processRawRanges(new String(bb.array(), bb.arrayOffset() + bb.position(), bb.remaining(), //
+				StandardCharsets.UTF_8));
 	}
 
 	private static final List<List<Integer>> processRawRanges(final String rawRanges) {
@@ -118,23 +344,75 @@ public class SimpleFontMetrics {
 	public interface FontMetricsHelper {
 		public int widthOf(final String string);
 
+		public default int widthOf(final CharSequence input) {
+			return widthOf(input.toString());
+		}
+
+		/**
+		 * Width of a subsequence
+		 * 
+		 * @param input sequence
+		 * @param start index (inclusive)
+		 * @param end index (exclusive)
+		 * @return width
+		 */
+		public default int widthOf(final CharSequence input, final int start, final int end) {
+			return widthOf(input.subSequence(start, end).toString());
+		}
+
+		public default int widthOf(final char[] input, final int off, final int len) {
+			return widthOf(new String(input, off, len));
+		}
+
+		/**
+		 * Width of UTF-8 encoded text
+		 * 
+		 * @param utf8 encoded text
+		 * @param off offset in array
+		 * @param len length in bytes
+		 * @return width
+		 */
+		public default int widthOf(final byte[] utf8, final int off, final int len) {
+			return widthOf(new String(utf8, off, len, StandardCharsets.UTF_8));
+		}
+
+		/**
+		 * Width of UTF-8 encoded text between position and limit (position is not changed)
+		 * 
+		 * @param utf8 encoded text (heap, direct or mapped)
+		 * @return width
+		 */
+		public default int widthOf(final ByteBuffer utf8) {
+			return widthOf(StandardCharsets.UTF_8.decode(utf8.duplicate()).toString());
+		}
+
 		public byte widthOf(final int codePoint);
 	}
 
 	public static class SystemFontMetrics implements FontMetricsHelper {
-		private static SystemFontMetrics INSTANCE = null;
+		/**
+		 * CodePoints measured per chunk when streaming v1 tables
+		 */
+		private static final int WIDTHS_CHUNK_SIZE = 64 * 1024;
 		private final FontMetrics metrics;
+		private final FontRenderContext fractional;
+		private final Font kerningFont;
 
-		static {
-			try {
-				INSTANCE = new SystemFontMetrics();
-			} catch (Throwable t) {
-				log.warn("SystemFontMetrics not available: " + t);
+		private static class Holder {
+			static final SystemFontMetrics INSTANCE = create();
+
+			private static final SystemFontMetrics create() {
+				try {
+					return new SystemFontMetrics();
+				} catch (Throwable t) {
+					log.warn("SystemFontMetrics not available: " + t);
+					return null;
+				}
 			}
 		}
 
 		public static SystemFontMetrics getDefaultInstance() {
-			return INSTANCE;
+			return Holder.INSTANCE;
 		}
 
 		public SystemFontMetrics() {
@@ -143,14 +421,83 @@ public class SimpleFontMetrics {
 			final Font font = new Font(FONT_NAME, Font.PLAIN, FONT_SIZE);
 			// https://github.com/corretto/corretto-11/issues/118
 			this.metrics = graphics.getFontMetrics(font); // NPE AWS-Lambda-Java11
+			this.fractional = new FontRenderContext(null, true, true); // FRACTIONALMETRICS_ON
+			this.kerningFont = font.deriveFont(Collections.singletonMap(TextAttribute.KERNING,
+					TextAttribute.KERNING_ON));
 		}
 
 		public int widthOf(final String input) {
 			return metrics.stringWidth(input);
 		}
 
+		public int widthOf(final CharSequence input) {
+			return metrics.stringWidth(input.toString());
+		}
+
+		public int widthOf(final CharSequence input, final int start, final int end) {
+			return metrics.stringWidth(input.subSequence(start, end).toString());
+		}
+
+		public int widthOf(final char[] input, final int off, final int len) {
+			return metrics.charsWidth(input, off, len);
+		}
+
+		public int widthOf(final byte[] utf8, final int off, final int len) {
+			return metrics.stringWidth(new String(utf8, off, len, StandardCharsets.UTF_8));
+		}
+
+		public int widthOf(final ByteBuffer utf8) {
+			return metrics.stringWidth(StandardCharsets.UTF_8.decode(utf8.duplicate()).toString());
+		}
+
 		public byte widthOf(final int codePoint) {
-			return (byte) Math.min(Math.max(metrics.charWidth(codePoint), 0), 127);
+			return clampWidth(metrics.charWidth(codePoint));
+		}
+
+		private static final byte clampWidth(final int width) {
+			return (byte) Math.min(Math.max(width, 0), 127);
+		}
+
+		/**
+		 * Advance of codePoint with fractional metrics (not rounded to integer pixels)
+		 * 
+		 * @param codePoint to measure
+		 * @param fractionBits precision of result
+		 * @return fixed-point advance (not negative)
+		 */
+		public int advanceOf(final int codePoint, final int fractionBits) {
+			return advanceOf(metrics.getFont(), fractional, codePoint, fractionBits);
+		}
+
+		private static final int advanceOf(final Font font, final FontRenderContext fractional,
+				final int codePoint, final int fractionBits) {
+			final double advance = font //
+					.getStringBounds(new String(Character.toChars(codePoint)), fractional) //
+					.getWidth();
+			final long fixed = Math.round(advance * (1 << fractionBits));
+			return (int) Math.min(Math.max(fixed, 0), Integer.MAX_VALUE);
+		}
+
+		/**
+		 * Kerning adjustment of a pair of codePoints: advance of the pair laid out with
+		 * {@link TextAttribute#KERNING} on, minus advance without kerning
+		 * 
+		 * @param first codePoint
+		 * @param second codePoint
+		 * @param fractionBits precision of result
+		 * @return fixed-point adjustment (usually negative)
+		 */
+		public int kerningOf(final int first, final int second, final int fractionBits) {
+			return kerningOf(metrics.getFont(), kerningFont, fractional, first, second, fractionBits);
+		}
+
+		private static final int kerningOf(final Font font, final Font kerningFont,
+				final FontRenderContext fractional, final int first, final int second,
+				final int fractionBits) {
+			final String pair = new StringBuilder(4).appendCodePoint(first).appendCodePoint(second).toString();
+			final double kerned = new TextLayout(pair, kerningFont, fractional).getAdvance();
+			final double plain = new TextLayout(pair, font, fractional).getAdvance();
+			return (int) Math.round((kerned - plain) * (1 << fractionBits));
 		}
 
 		public static List<String> getFontList() {
@@ -159,228 +506,2408 @@ public class SimpleFontMetrics {
 		}
 
 		public void exportFile(final List<List<Integer>> ranges, final String file) throws IOException {
-			final List<Byte> widths = computeWidthsOfRanges(ranges);
-			final ByteBuffer bb = toByteBuffer(ranges, widths);
-			FileOutputStream fos = null;
-			FileChannel chan = null;
+			exportFile(ranges, file, FORMAT_V2);
+		}
+
+		/**
+		 * Export table
+		 * 
+		 * @param ranges of codePoints
+		 * @param file output
+		 * @param format {@link SimpleFontMetrics#FORMAT_V1} or {@link SimpleFontMetrics#FORMAT_V2}
+		 * @throws IOException if error
+		 */
+		public void exportFile(final List<List<Integer>> ranges, final String file, final int format)
+				throws IOException {
+			exportFile(ranges, file, format, ((format == FORMAT_V3) ? DEFAULT_FRACTION_BITS : 0));
+		}
+
+		/**
+		 * Export table
+		 * 
+		 * @param ranges of codePoints
+		 * @param file output
+		 * @param format {@link SimpleFontMetrics#FORMAT_V1}, {@link SimpleFontMetrics#FORMAT_V2} or
+		 *            {@link SimpleFontMetrics#FORMAT_V3}
+		 * @param fractionBits precision of v3 advances (0 for v1 and v2)
+		 * @throws IOException if error
+		 */
+		public void exportFile(final List<List<Integer>> ranges, final String file, final int format,
+				final int fractionBits) throws IOException {
+			exportFile(ranges, file, format, fractionBits, null);
+		}
+
+		/**
+		 * Export table with kerning pairs (v2 or v3). Memory use of v1 does not depend on table size
+		 * (widths are measured and written in chunks); v2 and v3 hold one width (byte) or advance
+		 * (short) per codePoint of ranges while the table is written, as spans and pages are found
+		 * over the whole table.
+		 * 
+		 * @param ranges of codePoints
+		 * @param file output
+		 * @param format {@link SimpleFontMetrics#FORMAT_V1}, {@link SimpleFontMetrics#FORMAT_V2} or
+		 *            {@link SimpleFontMetrics#FORMAT_V3}
+		 * @param fractionBits precision of v3 advances (0 for v1 and v2)
+		 * @param kerningRanges codePoints whose pairs are measured (n^2 pairs, e.g. Basic Latin), or
+		 *            null for no kerning
+		 * @throws IOException if error
+		 * @throws IllegalArgumentException if fractionBits is not valid for the font size, or an
+		 *             advance does not fit in a v3 table with fractionBits
+		 */
+		public void exportFile(final List<List<Integer>> ranges, final String file, final int format,
+				final int fractionBits, final List<List<Integer>> kerningRanges) throws IOException {
+			final Font font = metrics.getFont();
+			if (format == FORMAT_V3) {
+				checkFractionBits(fractionBits, font.getSize());
+			} else if (fractionBits != 0) {
+				throw new IllegalArgumentException("Invalid fractionBits: " + fractionBits);
+			}
+			if ((format == FORMAT_V1) && (kerningRanges != null)) {
+				throw new IllegalArgumentException("Kerning not supported in format: " + format);
+			}
+			final WidthsWorkers workers = new WidthsWorkers(font);
 			try {
-				fos = new FileOutputStream(file);
-				chan = fos.getChannel();
-				chan.write(bb);
+				final int[] kerning = ((kerningRanges == null) //
+						? new int[0] //
+						: computeKerningOfRanges(kerningRanges, fractionBits, workers));
+				final WritableByteChannel out = openTableFile(file);
+				try {
+					switch (format) {
+						case FORMAT_V1:
+							writeTableV1(out, ranges, workers);
+							break;
+						case FORMAT_V2:
+							writeTableV2(out, ranges, computeWidthsOfRanges(ranges, workers), kerning, //
+									font.getName(), font.getStyle(), font.getSize());
+							break;
+						case FORMAT_V3:
+							writeTableV3(out, ranges, computeAdvancesOfRanges(ranges, fractionBits, workers), //
+									kerning, fractionBits, font.getName(), font.getStyle(), font.getSize());
+							break;
+						default:
+							throw new IllegalArgumentException("Invalid format: " + format);
+					}
+				} finally {
+					out.close(); // GZIP trailer is written on close, errors must not be lost
+				}
 			} finally {
-				closeSilent(chan);
-				closeSilent(fos);
+				workers.close();
 			}
 		}
 
-		private final List<Byte> computeWidthsOfRanges(final List<List<Integer>> ranges) {
-			final Byte[] widths = new Byte[sumRanges(ranges)];
-			int offset = 0;
-			for (final List<Integer> r : ranges) {
-				final Integer lower = r.get(0);
-				final Integer upper = r.get(1);
-				widthOfRange(lower.intValue(), upper.intValue(), widths, offset);
-				offset += (upper.intValue() - lower.intValue()) + 1;
-			}
-			return Arrays.asList(widths);
+		/**
+		 * Widths of every codePoint of ranges
+		 */
+		private final byte[] computeWidthsOfRanges(final List<List<Integer>> ranges,
+				final WidthsWorkers workers) {
+			final RangeIndex index = new RangeIndex(ranges);
+			final byte[] widths = new byte[index.size()];
+			workers.computeWidths(index, 0, widths.length, widths);
+			return widths;
 		}
 
-		private final int sumRanges(final List<List<Integer>> ranges) {
-			int cx = 0;
+		/**
+		 * Write v1 table, widths are computed and written in chunks (memory use does not depend on
+		 * table size)
+		 */
+		private final void writeTableV1(final WritableByteChannel out, final List<List<Integer>> ranges,
+				final WidthsWorkers workers) throws IOException {
+			final RangeIndex index = new RangeIndex(ranges);
+			final TableWriter writer = new TableWriter(out);
+			writer.putInt(ranges.size()); // Number of Ranges
 			for (final List<Integer> r : ranges) {
-				final Integer lower = r.get(0);
-				final Integer upper = r.get(1);
-				cx += (upper.intValue() - lower.intValue()) + 1;
+				writer.putInt(r.get(0).intValue());
+				writer.putInt(r.get(1).intValue());
+			}
+			writer.putInt(index.size()); // Number of Widths
+			final byte[] chunk = new byte[Math.min(index.size(), WIDTHS_CHUNK_SIZE)];
+			for (int from = 0; from < index.size(); from += chunk.length) {
+				final int to = Math.min(from + chunk.length, index.size());
+				workers.computeWidths(index, from, to, chunk);
+				writer.put(chunk, 0, to - from);
 			}
-			return cx;
+			writer.flush();
 		}
 
-		private final void widthOfRange(final int lower, final int upper, final Byte[] widths,
-				final int offset) {
-			for (int codePoint = lower; codePoint <= upper; codePoint++) {
-				byte width = 0;
-				if (codePoint < 32) {
-					width = 0;
-				} else {
-					width = this.widthOf(codePoint);
-				}
-				widths[offset + codePoint - lower] = Byte.valueOf(width);
+		/**
+		 * Fork/join pool of one export with one {@link Worker} per worker thread (AWT FontMetrics and
+		 * fonts are not guaranteed to be thread-safe); per-thread workers end with the pool, graphics
+		 * are disposed on close
+		 */
+		private static final class WidthsWorkers implements Closeable {
+			private final ForkJoinPool pool = new ForkJoinPool();
+			private final ConcurrentLinkedQueue<Graphics> graphics = new ConcurrentLinkedQueue<Graphics>();
+			private final ThreadLocal<Worker> workers;
+
+			WidthsWorkers(final Font font) {
+				this.workers = new ThreadLocal<Worker>() {
+					@Override
+					protected Worker initialValue() {
+						final BufferedImage canvas = new BufferedImage(5, 5, BufferedImage.TYPE_INT_RGB);
+						final Graphics g = canvas.getGraphics();
+						graphics.add(g);
+						return new Worker(g.getFontMetrics(new Font(font.getAttributes())));
+					}
+				};
 			}
-		}
 
-		private final ByteBuffer toByteBuffer(final List<List<Integer>> ranges, final List<Byte> widths) {
-			final int rangeSize = (1 + (ranges.size() * 2)) * 4; // Size of 2 Int in bytes + 1-header (int)
-			final int widthSize = (1 * 4) + (widths.size() * 1); // Size of Bytes in bytes + 1-header (int)
-			final int totalSize = rangeSize + widthSize;
-			ByteBuffer bb = ByteBuffer.allocate(totalSize);
-			bb.putInt(ranges.size()); // Number of Ranges
-			for (final List<Integer> r : ranges) {
-				final Integer lower = r.get(0);
-				final Integer upper = r.get(1);
-				bb.putInt(lower.intValue());
-				bb.putInt(upper.intValue());
+			/**
+			 * Widths of codePoints [from, to) of the concatenation of ranges into out[0, to - from),
+			 * computed in parallel; output is the same as a sequential run
+			 */
+			void computeWidths(final RangeIndex index, final int from, final int to, final byte[] out) {
+				pool.invoke(new WidthsTask(workers, index, out, from, from, to));
 			}
-			bb.putInt(widths.size()); // Number of Widths
-			for (final Byte b : widths) {
-				bb.put(b.byteValue());
+
+			/**
+			 * Advances of every codePoint of the concatenation of ranges, computed in parallel
+			 * 
+			 * @throws IllegalArgumentException if an advance does not fit in a short with fractionBits
+			 */
+			short[] computeAdvances(final RangeIndex index, final int fractionBits) {
+				final short[] out = new short[index.size()];
+				pool.invoke(new AdvancesTask(workers, index, out, fractionBits, 0, out.length));
+				return out;
 			}
-			bb.flip();
-			return bb;
-		}
-	}
 
-	public static class IndexedFontMetrics implements FontMetricsHelper {
-		private static IndexedFontMetrics INSTANCE = null;
-		private final int[] ranges;
-		private final byte[] widths;
+			/**
+			 * Kerning of every pair of codePoints, one row (first, second, adjustment) per first
+			 * codePoint, computed in parallel
+			 */
+			int[][] computeKerning(final int[] codePoints, final int fractionBits) {
+				final int[][] rows = new int[codePoints.length][];
+				pool.invoke(new KerningTask(workers, codePoints, rows, fractionBits, 0, rows.length));
+				return rows;
+			}
 
-		static {
-			try {
-				INSTANCE = importFile(IndexedFontMetrics.class.getResource(FILE_RESOURCE_INDEX_CACHE));
-			} catch (Exception e) {
-				log.error("IndexedFontMetrics not available: " + e);
-				throw new RuntimeException(e);
+			@Override
+			public void close() {
+				pool.shutdown();
+				Graphics g;
+				while ((g = graphics.poll()) != null) {
+					g.dispose();
+				}
 			}
 		}
 
-		public static IndexedFontMetrics getDefaultInstance() {
-			return INSTANCE;
+		/**
+		 * Measurement state of one worker thread: own font, FontMetrics, kerning font and fractional
+		 * render context
+		 */
+		private static final class Worker {
+			final FontMetrics metrics;
+			final FontRenderContext fractional = new FontRenderContext(null, true, true);
+			final Font kerningFont;
+
+			Worker(final FontMetrics metrics) {
+				this.metrics = metrics;
+				this.kerningFont = metrics.getFont().deriveFont( //
+						Collections.singletonMap(TextAttribute.KERNING, TextAttribute.KERNING_ON));
+			}
 		}
 
-		private IndexedFontMetrics(final int[] ranges, final byte[] widths) {
-			this.ranges = ranges;
-			this.widths = widths;
+		/**
+		 * First codePoint and offset in concatenation of each range
+		 */
+		private static final class RangeIndex {
+			final int[] lowers;
+			final int[] offsets; // length + 1, last is size
+
+			RangeIndex(final List<List<Integer>> ranges) {
+				lowers = new int[ranges.size()];
+				offsets = new int[ranges.size() + 1];
+				for (int i = 0; i < lowers.length; i++) {
+					final List<Integer> r = ranges.get(i);
+					lowers[i] = r.get(0).intValue();
+					offsets[i + 1] = offsets[i] + (r.get(1).intValue() - lowers[i]) + 1;
+				}
+			}
+
+			int size() {
+				return offsets[lowers.length];
+			}
 		}
 
-		private int findOffsetByRangeScan(final int codePoint) {
-			int offset = 0;
-			for (int i = 0; i < ranges.length; i += 2) {
-				final int lower = ranges[i];
-				final int upper = ranges[i + 1];
-				if ((codePoint >= lower) && (codePoint <= upper)) {
-					return (offset + (codePoint - lower));
+		/**
+		 * Split [from, to) in halves down to threshold, leaves run with the worker of their thread
+		 */
+		private abstract static class WorkerTask extends RecursiveAction {
+			private static final long serialVersionUID = 1L;
+			final ThreadLocal<Worker> workers;
+			final int from;
+			final int to;
+
+			WorkerTask(final ThreadLocal<Worker> workers, final int from, final int to) {
+				this.workers = workers;
+				this.from = from;
+				this.to = to;
+			}
+
+			abstract int threshold();
+
+			abstract WorkerTask split(int from, int to);
+
+			abstract void compute(Worker worker);
+
+			@Override
+			protected final void compute() {
+				if ((to - from) > threshold()) {
+					final int mid = (from + to) >>> 1;
+					invokeAll(split(from, mid), split(mid, to));
+					return;
 				}
-				offset += (upper - lower) + 1;
+				compute(workers.get());
 			}
-			return -1;
 		}
 
-		public int widthOf(final String input) {
-			int width = 0;
-			final int len = input.length();
-			for (int i = 0; i < len; i++) {
-				final int codePoint = input.codePointAt(i);
-				final int w = widthOf(codePoint);
-				width += w;
+		/**
+		 * Visit [from, to) (index over the concatenation of ranges) with codePoint of each index
+		 */
+		private abstract static class RangesTask extends WorkerTask {
+			private static final long serialVersionUID = 1L;
+			final RangeIndex index;
+
+			RangesTask(final ThreadLocal<Worker> workers, final RangeIndex index, final int from,
+					final int to) {
+				super(workers, from, to);
+				this.index = index;
+			}
+
+			@Override
+			int threshold() {
+				return 4096;
+			}
+
+			abstract void measure(Worker worker, int i, int codePoint);
+
+			@Override
+			final void compute(final Worker worker) {
+				final int[] offsets = index.offsets;
+				int range = Arrays.binarySearch(offsets, from);
+				range = ((range < 0) ? (-range - 2) : range);
+				for (int i = from; i < to; i++) {
+					while (i >= offsets[range + 1]) {
+						range++;
+					}
+					measure(worker, i, index.lowers[range] + (i - offsets[range]));
+				}
 			}
-			return width;
 		}
 
-		public byte widthOf(final int codePoint) {
-			if (codePoint < 32) {
-				return 0;
+		/**
+		 * Fill widths of [from, to) into out[i - base]
+		 */
+		private static final class WidthsTask extends RangesTask {
+			private static final long serialVersionUID = 1L;
+			private final byte[] out;
+			private final int base;
+
+			WidthsTask(final ThreadLocal<Worker> workers, final RangeIndex index, final byte[] out,
+					final int base, final int from, final int to) {
+				super(workers, index, from, to);
+				this.out = out;
+				this.base = base;
 			}
-			final int offset = findOffsetByRangeScan(codePoint);
-			if ((offset < 0) || (offset >= widths.length)) {
-				return FONT_SIZE;
+
+			@Override
+			WorkerTask split(final int from, final int to) {
+				return new WidthsTask(workers, index, out, base, from, to);
+			}
+
+			@Override
+			void measure(final Worker worker, final int i, final int codePoint) {
+				out[i - base] = ((codePoint < 32) ? 0 : clampWidth(worker.metrics.charWidth(codePoint)));
 			}
-			return widths[offset];
 		}
 
-		public static IndexedFontMetrics importFile(final URL url) throws IOException {
-			InputStream is = null;
-			URLConnection conn = null;
-			try {
-				conn = url.openConnection();
-				conn.setDoOutput(false);
-				conn.setUseCaches(true);
-				conn.connect();
-				is = conn.getInputStream();
-				final int size = conn.getContentLength();
-				final byte[] buf = new byte[size];
-				is.read(buf);
-				return fromByteBuffer(ByteBuffer.wrap(buf));
-			} finally {
-				closeSilent(is);
+		/**
+		 * Fill fixed-point advances of [from, to) into out[i]
+		 */
+		private static final class AdvancesTask extends RangesTask {
+			private static final long serialVersionUID = 1L;
+			private final short[] out;
+			private final int fractionBits;
+
+			AdvancesTask(final ThreadLocal<Worker> workers, final RangeIndex index, final short[] out,
+					final int fractionBits, final int from, final int to) {
+				super(workers, index, from, to);
+				this.out = out;
+				this.fractionBits = fractionBits;
+			}
+
+			@Override
+			WorkerTask split(final int from, final int to) {
+				return new AdvancesTask(workers, index, out, fractionBits, from, to);
+			}
+
+			@Override
+			void measure(final Worker worker, final int i, final int codePoint) {
+				out[i] = ((codePoint < 32) //
+						? 0 //
+						: toStoredAdvance(codePoint, advanceOf(worker.metrics.getFont(), worker.fractional,
+								codePoint, fractionBits), fractionBits));
 			}
 		}
 
-		public static IndexedFontMetrics importFile(final File file) throws IOException {
-			return importFile(file.toURI().toURL());
+		/**
+		 * Fill kerning rows of first codePoints [from, to) into rows[i], pairs without adjustment are
+		 * skipped
+		 */
+		private static final class KerningTask extends WorkerTask {
+			private static final long serialVersionUID = 1L;
+			private final int[] codePoints;
+			private final int[][] rows;
+			private final int fractionBits;
+
+			KerningTask(final ThreadLocal<Worker> workers, final int[] codePoints, final int[][] rows,
+					final int fractionBits, final int from, final int to) {
+				super(workers, from, to);
+				this.codePoints = codePoints;
+				this.rows = rows;
+				this.fractionBits = fractionBits;
+			}
+
+			@Override
+			int threshold() {
+				return 1; // Each row lays out 2 * codePoints.length pairs
+			}
+
+			@Override
+			WorkerTask split(final int from, final int to) {
+				return new KerningTask(workers, codePoints, rows, fractionBits, from, to);
+			}
+
+			@Override
+			void compute(final Worker worker) {
+				final Font font = worker.metrics.getFont();
+				for (int i = from; i < to; i++) {
+					final int first = codePoints[i];
+					final int[] row = new int[codePoints.length * 3];
+					int offset = 0;
+					for (final int second : codePoints) {
+						final int adjustment = kerningOf(font, worker.kerningFont, worker.fractional, first,
+								second, fractionBits);
+						if (adjustment != 0) {
+							row[offset++] = first;
+							row[offset++] = second;
+							row[offset++] = adjustment;
+						}
+					}
+					rows[i] = Arrays.copyOf(row, offset);
+				}
+			}
 		}
 
-		public static IndexedFontMetrics importFile(final String file) throws IOException {
-			return importFile(new File(file));
+		private final short[] computeAdvancesOfRanges(final List<List<Integer>> ranges,
+				final int fractionBits, final WidthsWorkers workers) {
+			return workers.computeAdvances(new RangeIndex(ranges), fractionBits);
 		}
 
-		private static final IndexedFontMetrics fromByteBuffer(final ByteBuffer bb) {
-			final int rangeCount = bb.getInt(); // Number of Ranges
-			final int[] ranges = new int[rangeCount * 2];
-			for (int i = 0, o = 0; i < rangeCount; i++, o += 2) {
-				ranges[o] = bb.getInt();
-				ranges[o + 1] = bb.getInt();
+		/**
+		 * Kerning of every pair of codePoints in ranges, sorted, pairs without adjustment are skipped
+		 * 
+		 * @return first, second, adjustment
+		 */
+		private final int[] computeKerningOfRanges(final List<List<Integer>> ranges, final int fractionBits,
+				final WidthsWorkers workers) {
+			final List<Integer> codePoints = new ArrayList<Integer>();
+			for (final List<Integer> r : ranges) {
+				final int lower = Math.max(r.get(0).intValue(), 32);
+				final int upper = r.get(1).intValue();
+				for (int codePoint = lower; codePoint <= upper; codePoint++) {
+					if (metrics.getFont().canDisplay(codePoint)) {
+						codePoints.add(Integer.valueOf(codePoint));
+					}
+				}
 			}
-			final int widthCount = bb.getInt(); // Number of Widths
-			final byte[] widths = new byte[widthCount];
-			for (int i = 0; i < widthCount; i++) {
-				widths[i] = bb.get();
+			final int[] firsts = new int[codePoints.size()];
+			for (int i = 0; i < firsts.length; i++) {
+				firsts[i] = codePoints.get(i).intValue();
 			}
-			bb.flip();
-			return new IndexedFontMetrics(ranges, widths);
+			final int[][] rows = workers.computeKerning(firsts, fractionBits);
+			int count = 0;
+			for (final int[] row : rows) {
+				count += row.length;
+			}
+			final int[] kerning = new int[count];
+			int offset = 0;
+			for (final int[] row : rows) {
+				System.arraycopy(row, 0, kerning, offset, row.length);
+				offset += row.length;
+			}
+			return kerning;
 		}
-	}
 
-	private static final void closeSilent(final Closeable c) {
-		try {
-			c.close();
-		} catch (Exception ign) {
-		}
 	}
 
 	/**
-	 * Simple test
-	 * 
-	 * @param args ignored
-	 * @throws Throwable if error
+	 * Text measurement on top of {@link #widthOf(int)}: shared string, char[] and UTF-8 loops with a
+	 * direct-indexed Latin-1 fast path.
 	 */
-	public static void main(String[] args) throws Throwable {
-		long begin;
-		//
-		begin = System.currentTimeMillis();
-		final String TEST_FILE = new File("/tmp/", FILE_RESOURCE_INDEX_CACHE).getAbsolutePath();
-		System.out.println("TestFile=" + TEST_FILE);
-		final SystemFontMetrics sys = SystemFontMetrics.getDefaultInstance();
-		sys.exportFile(loadRanges("short"), TEST_FILE);
-		final IndexedFontMetrics idx = IndexedFontMetrics.importFile(TEST_FILE);
-		System.out.println("Export/Import Time=" + (System.currentTimeMillis() - begin));
+	public static abstract class CodePointFontMetrics implements FontMetricsHelper {
+		protected static final int PAGE_BITS = 8;
+		protected static final int PAGE_SIZE = 1 << PAGE_BITS;
+		protected static final int PAGE_MASK = PAGE_SIZE - 1;
+		private static final int LATIN1_SIZE = 256;
+		/**
+		 * Unpaired surrogates and malformed UTF-8 (each maximal subpart, as recommended by the
+		 * Unicode Standard) are measured as U+FFFD REPLACEMENT CHARACTER
+		 */
+		private static final int REPLACEMENT_CHAR = 0xFFFD;
+		private static final int UTF8_LENGTH_SHIFT = 24;
+		private static final int UTF8_CODEPOINT_MASK = (1 << UTF8_LENGTH_SHIFT) - 1;
+		private final int[] latin1 = new int[LATIN1_SIZE];
+		private final int fractionBits;
+		private final int half;
+		private final KerningTable kerning; // null: no kerning (fast path)
 
-		System.out.println("<LF> ==> " + sys.widthOf('\n') + " => " + idx.widthOf('\n'));
-		System.out.println("<SPACE> ==> " + sys.widthOf(' ') + " => " + idx.widthOf(' '));
-		System.out.println("A ==> " + sys.widthOf('A') + " => " + idx.widthOf('A'));
-		System.out.println("<~> ==> " + sys.widthOf('~') + " => " + idx.widthOf('~'));
-		System.out.println("<127> ==> " + sys.widthOf(127) + " => " + idx.widthOf(127));
-		System.out.println("<128> ==> " + sys.widthOf(128) + " => " + idx.widthOf(128));
-		System.out.println("<NB> ==> " + sys.widthOf(160) + " => " + idx.widthOf(160));
-		System.out.println("<SHY> ==> " + sys.widthOf(0xAD) + " => " + idx.widthOf(0xAD));
-		System.out.println("<255> ==> " + sys.widthOf(255) + " => " + idx.widthOf(255));
-		System.out.println("<7680> ==> " + sys.widthOf(7680) + " => " + idx.widthOf(7680));
-		System.out.println("<7821> ==> " + sys.widthOf(7821) + " => " + idx.widthOf(7821));
-		System.out.println("<7935> ==> " + sys.widthOf(7935) + " => " + idx.widthOf(7935));
+		protected CodePointFontMetrics() {
+			this(0);
+		}
 
-		final String hello = "Hello World!";
-		System.out.println(hello + " ==> " + sys.widthOf(hello) + " => " + idx.widthOf(hello));
+		/**
+		 * @param fractionBits number of fractional bits of values returned by {@link #advanceOf(int)};
+		 *            text widths are accumulated in fixed-point and rounded once at the end
+		 */
+		protected CodePointFontMetrics(final int fractionBits) {
+			this(fractionBits, null);
+		}
 
-		// Simple Benchmark
-		begin = System.currentTimeMillis();
-		for (int i = 0; i < 1e7; i++) {
-			sys.widthOf(hello);
+		CodePointFontMetrics(final int fractionBits, final KerningTable kerning) {
+			if ((fractionBits < 0) || (fractionBits > MAX_FRACTION_BITS)) {
+				throw new IllegalArgumentException("Invalid fractionBits: " + fractionBits);
+			}
+			this.fractionBits = fractionBits;
+			this.half = (1 << fractionBits) >> 1;
+			this.kerning = kerning;
 		}
-		System.out.println("SystemFontMetrics Time=" + (System.currentTimeMillis() - begin));
-		//
-		begin = System.currentTimeMillis();
-		for (int i = 0; i < 1e7; i++) {
-			idx.widthOf(hello);
+
+		/**
+		 * @return true if text widths include adjustments of kerning pairs
+		 */
+		public boolean hasKerning() {
+			return (kerning != null);
+		}
+
+		KerningTable getKerning() {
+			return kerning;
 		}
-		System.out.println("IndexedFontMetrics Time=" + (System.currentTimeMillis() - begin));
+
+		public int getFractionBits() {
+			return fractionBits;
+		}
+
+		/**
+		 * Fill direct-indexed advances for U+0000 to U+00FF (fast path for text loops); must be called
+		 * by subclass constructor once {@link #advanceOf(int)} is usable
+		 */
+		protected final void fillLatin1() {
+			for (int codePoint = 0; codePoint < LATIN1_SIZE; codePoint++) {
+				latin1[codePoint] = advanceOf(codePoint);
+			}
+		}
+
+		/**
+		 * Advance of codePoint in fixed-point with {@link #getFractionBits()} fractional bits; default
+		 * is the integer width
+		 */
+		protected int advanceOf(final int codePoint) {
+			return widthOf(codePoint);
+		}
+
+		/**
+		 * Round accumulated fixed-point advance to integer width (half up)
+		 */
+		protected final int toPixels(final long advance) {
+			return (int) ((advance + half) >> fractionBits);
+		}
+
+		/**
+		 * Width of string, decoding each UTF-16 unit once; surrogate pairs are measured as one
+		 * codePoint and unpaired surrogates as U+FFFD.
+		 */
+		public int widthOf(final String input) {
+			if (kerning != null) {
+				return widthOfKerned(input, 0, input.length());
+			}
+			final int[] latin1 = this.latin1;
+			long width = 0;
+			final int len = input.length();
+			for (int i = 0; i < len; i++) {
+				final char c = input.charAt(i);
+				if (c < LATIN1_SIZE) {
+					width += latin1[c];
+				} else if (!Character.isSurrogate(c)) {
+					width += advanceOf(c);
+				} else {
+					final int codePoint = decodeSurrogate(c, input, i + 1, len);
+					width += advanceOf(codePoint);
+					i += Character.charCount(codePoint) - 1;
+				}
+			}
+			return toPixels(width);
+		}
+
+		public int widthOf(final CharSequence input) {
+			return widthOf(input, 0, input.length());
+		}
+
+		public int widthOf(final CharSequence input, final int start, final int end) {
+			if ((start < 0) || (start > end) || (end > input.length())) {
+				throw new IndexOutOfBoundsException("start=" + start + " end=" + end //
+						+ " length=" + input.length());
+			}
+			if (kerning != null) {
+				return widthOfKerned(input, start, end);
+			}
+			final int[] latin1 = this.latin1;
+			long width = 0;
+			for (int i = start; i < end; i++) {
+				final char c = input.charAt(i);
+				if (c < LATIN1_SIZE) {
+					width += latin1[c];
+				} else if (!Character.isSurrogate(c)) {
+					width += advanceOf(c);
+				} else {
+					final int codePoint = decodeSurrogate(c, input, i + 1, end);
+					width += advanceOf(codePoint);
+					i += Character.charCount(codePoint) - 1;
+				}
+			}
+			return toPixels(width);
+		}
+
+		public int widthOf(final char[] input, final int off, final int len) {
+			if ((off < 0) || (len < 0) || (off > input.length - len)) {
+				throw new IndexOutOfBoundsException("off=" + off + " len=" + len //
+						+ " length=" + input.length);
+			}
+			if (kerning != null) {
+				return widthOfKerned(CharBuffer.wrap(input), off, off + len);
+			}
+			final int[] latin1 = this.latin1;
+			final int end = off + len;
+			long width = 0;
+			for (int i = off; i < end; i++) {
+				final char c = input[i];
+				if (c < LATIN1_SIZE) {
+					width += latin1[c];
+				} else if (!Character.isSurrogate(c)) {
+					width += advanceOf(c);
+				} else {
+					final int codePoint = decodeSurrogate(c, input, i + 1, end);
+					width += advanceOf(codePoint);
+					i += Character.charCount(codePoint) - 1;
+				}
+			}
+			return toPixels(width);
+		}
+
+		public int widthOf(final byte[] utf8, final int off, final int len) {
+			if ((off < 0) || (len < 0) || (off > utf8.length - len)) {
+				throw new IndexOutOfBoundsException("off=" + off + " len=" + len //
+						+ " length=" + utf8.length);
+			}
+			if (kerning != null) {
+				return widthOfKerned(ByteBuffer.wrap(utf8, off, len));
+			}
+			final int[] latin1 = this.latin1;
+			final int end = off + len;
+			long width = 0;
+			for (int i = off; i < end;) {
+				final int b = utf8[i];
+				if (b >= 0) {
+					width += latin1[b];
+					i++;
+				} else {
+					final int decoded = decodeUtf8(b, utf8, i + 1, end);
+					width += advanceOf(decoded & UTF8_CODEPOINT_MASK);
+					i += decoded >>> UTF8_LENGTH_SHIFT;
+				}
+			}
+			return toPixels(width);
+		}
+
+		public int widthOf(final ByteBuffer utf8) {
+			if (kerning != null) {
+				return widthOfKerned(utf8);
+			}
+			if (utf8.hasArray()) {
+				return widthOf(utf8.array(), utf8.arrayOffset() + utf8.position(), utf8.remaining());
+			}
+			final int[] latin1 = this.latin1;
+			final int end = utf8.limit();
+			long width = 0;
+			for (int i = utf8.position(); i < end;) {
+				final int b = utf8.get(i);
+				if (b >= 0) {
+					width += latin1[b];
+					i++;
+				} else {
+					final int decoded = decodeUtf8(b, utf8, i + 1, end);
+					width += advanceOf(decoded & UTF8_CODEPOINT_MASK);
+					i += decoded >>> UTF8_LENGTH_SHIFT;
+				}
+			}
+			return toPixels(width);
+		}
+
+		/**
+		 * Width with kerning: advance of each codePoint plus adjustment of each pair of adjacent
+		 * codePoints (kept apart from the plain loops, which stay the fast path)
+		 */
+		private int widthOfKerned(final CharSequence input, final int start, final int end) {
+			final int[] latin1 = this.latin1;
+			long width = 0;
+			int previous = -1;
+			for (int i = start; i < end; i++) {
+				final char c = input.charAt(i);
+				final int codePoint = (Character.isSurrogate(c) ? decodeSurrogate(c, input, i + 1, end) : c);
+				width += ((codePoint < LATIN1_SIZE) ? latin1[codePoint] : advanceOf(codePoint));
+				width += kerning.adjustmentOf(previous, codePoint);
+				previous = codePoint;
+				i += Character.charCount(codePoint) - 1;
+			}
+			return toPixels(width);
+		}
+
+		private int widthOfKerned(final ByteBuffer utf8) {
+			final int[] latin1 = this.latin1;
+			final int end = utf8.limit();
+			long width = 0;
+			int previous = -1;
+			for (int i = utf8.position(); i < end;) {
+				final int b = utf8.get(i);
+				final int codePoint;
+				if (b >= 0) {
+					codePoint = b;
+					width += latin1[b];
+					i++;
+				} else {
+					final int decoded = decodeUtf8(b, utf8, i + 1, end);
+					codePoint = decoded & UTF8_CODEPOINT_MASK;
+					width += advanceOf(codePoint);
+					i += decoded >>> UTF8_LENGTH_SHIFT;
+				}
+				width += kerning.adjustmentOf(previous, codePoint);
+				previous = codePoint;
+			}
+			return toPixels(width);
+		}
+
+		/**
+		 * Decode a multi-byte UTF-8 sequence (kept out of the ASCII loop)
+		 * 
+		 * @param b0 lead byte
+		 * @param input encoded text
+		 * @param next index of next byte
+		 * @param end index (exclusive)
+		 * @return codePoint (or {@link #REPLACEMENT_CHAR} for malformed input) in the low bits and
+		 *         the number of bytes consumed above {@link #UTF8_LENGTH_SHIFT}
+		 */
+		private static final int decodeUtf8(final int b0, final byte[] input, final int next,
+				final int end) {
+			final int lead = b0 & 0xFF;
+			final int count = utf8TrailCount(lead);
+			if (count == 0) {
+				return utf8Decoded(REPLACEMENT_CHAR, 1);
+			}
+			int codePoint = lead & (0x3F >>> count);
+			for (int k = 0; k < count; k++) {
+				if ((next + k) >= end) {
+					return utf8Decoded(REPLACEMENT_CHAR, 1 + k);
+				}
+				final int b = input[next + k] & 0xFF;
+				if (!isUtf8Trail(lead, k, b)) {
+					return utf8Decoded(REPLACEMENT_CHAR, 1 + k);
+				}
+				codePoint = (codePoint << 6) | (b & 0x3F);
+			}
+			return utf8Decoded(codePoint, 1 + count);
+		}
+
+		private static final int decodeUtf8(final int b0, final ByteBuffer input, final int next,
+				final int end) {
+			final int lead = b0 & 0xFF;
+			final int count = utf8TrailCount(lead);
+			if (count == 0) {
+				return utf8Decoded(REPLACEMENT_CHAR, 1);
+			}
+			int codePoint = lead & (0x3F >>> count);
+			for (int k = 0; k < count; k++) {
+				if ((next + k) >= end) {
+					return utf8Decoded(REPLACEMENT_CHAR, 1 + k);
+				}
+				final int b = input.get(next + k) & 0xFF;
+				if (!isUtf8Trail(lead, k, b)) {
+					return utf8Decoded(REPLACEMENT_CHAR, 1 + k);
+				}
+				codePoint = (codePoint << 6) | (b & 0x3F);
+			}
+			return utf8Decoded(codePoint, 1 + count);
+		}
+
+		/**
+		 * Number of continuation bytes after a lead byte, 0 if not a valid lead byte
+		 */
+		private static final int utf8TrailCount(final int lead) {
+			if ((lead >= 0xC2) && (lead <= 0xDF)) {
+				return 1;
+			} else if ((lead >= 0xE0) && (lead <= 0xEF)) {
+				return 2;
+			} else if ((lead >= 0xF0) && (lead <= 0xF4)) {
+				return 3;
+			}
+			return 0;
+		}
+
+		/**
+		 * Check continuation byte, rejecting overlong forms, surrogates and codePoints above U+10FFFF
+		 */
+		private static final boolean isUtf8Trail(final int lead, final int k, final int b) {
+			int low = 0x80;
+			int high = 0xBF;
+			if (k == 0) {
+				if (lead == 0xE0) {
+					low = 0xA0;
+				} else if (lead == 0xED) {
+					high = 0x9F;
+				} else if (lead == 0xF0) {
+					low = 0x90;
+				} else if (lead == 0xF4) {
+					high = 0x8F;
+				}
+			}
+			return (b >= low) && (b <= high);
+		}
+
+		private static final int utf8Decoded(final int codePoint, final int length) {
+			return (length << UTF8_LENGTH_SHIFT) | codePoint;
+		}
+
+		/**
+		 * Decode surrogate (kept out of the BMP loop)
+		 * 
+		 * @param c surrogate
+		 * @param input sequence
+		 * @param next index of next char
+		 * @param end index (exclusive)
+		 * @return codePoint of pair or {@link #REPLACEMENT_CHAR}
+		 */
+		private static final int decodeSurrogate(final char c, final CharSequence input, final int next,
+				final int end) {
+			if (Character.isHighSurrogate(c) && (next < end)) {
+				final char low = input.charAt(next);
+				if (Character.isLowSurrogate(low)) {
+					return Character.toCodePoint(c, low);
+				}
+			}
+			return REPLACEMENT_CHAR;
+		}
+
+		private static final int decodeSurrogate(final char c, final char[] input, final int next,
+				final int end) {
+			if (Character.isHighSurrogate(c) && (next < end)) {
+				final char low = input[next];
+				if (Character.isLowSurrogate(low)) {
+					return Character.toCodePoint(c, low);
+				}
+			}
+			return REPLACEMENT_CHAR;
+		}
+	}
+
+	/**
+	 * Header of v2 and v3 tables (CRC of body is verified on read)
+	 */
+	private static final class TableHeader {
+		final int version;
+		final String fontName;
+		final int fontStyle;
+		final int fontSize;
+		final int fractionBits;
+		final ByteBuffer body; // positioned at page directory, in table byte order
+
+		private TableHeader(final int version, final String fontName, final int fontStyle,
+				final int fontSize, final int fractionBits, final ByteBuffer body) {
+			this.version = version;
+			this.fontName = fontName;
+			this.fontStyle = fontStyle;
+			this.fontSize = fontSize;
+			this.fractionBits = fractionBits;
+			this.body = body;
+		}
+
+		static final boolean isVersioned(final ByteBuffer bb) {
+			if (bb.remaining() < 4) {
+				return false;
+			}
+			final int magic = bb.getInt(bb.position());
+			return ((magic == FORMAT_MAGIC) || (magic == Integer.reverseBytes(FORMAT_MAGIC)));
+		}
+
+		static final TableHeader read(final ByteBuffer bb) throws IOException {
+			try {
+				return readChecked(bb);
+			} catch (BufferUnderflowException | IllegalArgumentException e) {
+				throw new IOException("Truncated table header", e);
+			}
+		}
+
+		private static final TableHeader readChecked(final ByteBuffer bb) throws IOException {
+			final int start = bb.position();
+			final ByteBuffer in = bb.duplicate();
+			in.order((bb.getInt(start) == FORMAT_MAGIC) ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN);
+			in.getInt(); // Magic
+			final int version = in.getShort();
+			if ((version != FORMAT_V2) && (version != FORMAT_V3)) {
+				throw new IOException("Unsupported format version: " + version);
+			}
+			final int headerLength = in.getShort() & 0xFFFF;
+			final int crc = in.getInt();
+			final int fontSize = in.getInt();
+			final int fontStyle = in.getInt();
+			final byte[] name = new byte[in.getShort() & 0xFFFF];
+			in.get(name);
+			final int fractionBits = ((version == FORMAT_V3) ? in.getShort() : 0);
+			if ((fractionBits < 0) || (fractionBits > MAX_FRACTION_BITS)) {
+				throw new IOException("Invalid fractionBits: " + fractionBits);
+			}
+			in.position(start + headerLength);
+			final CRC32 check = new CRC32();
+			check.update(in.duplicate());
+			if ((int) check.getValue() != crc) {
+				throw new IOException("Invalid CRC");
+			}
+			return new TableHeader(version, new String(name, StandardCharsets.UTF_8), fontStyle, fontSize,
+					fractionBits, in);
+		}
+
+		/**
+		 * Read optional spans at end of body: start, end, width
+		 */
+		static final int[] readSpans(final ByteBuffer in) throws IOException {
+			return readInts(in, (in.remaining() >= 4) ? (readCount(in, 12) * 3) : 0);
+		}
+
+		/**
+		 * Read optional kerning pairs after spans: first, second, adjustment
+		 * 
+		 * @return table or null if there are no pairs
+		 */
+		static final KerningTable readKerning(final ByteBuffer in) throws IOException {
+			final int[] pairs = readInts(in, (in.remaining() >= 4) ? (readCount(in, 12) * 3) : 0);
+			return ((pairs.length == 0) ? null : new KerningTable(pairs));
+		}
+
+		/**
+		 * Bulk read of ints through an IntBuffer view (in buffer byte order), advancing position
+		 */
+		static final int[] readInts(final ByteBuffer in, final int count) throws IOException {
+			if ((count < 0) || (count > (in.remaining() >>> 2))) {
+				throw new IOException("Truncated table: " + count + " ints, " + in.remaining() + " bytes left");
+			}
+			final int[] values = new int[count];
+			in.asIntBuffer().get(values);
+			in.position(in.position() + (count * 4));
+			return values;
+		}
+
+		/**
+		 * Read count of entries, checked against remaining bytes (no overflow of count * size)
+		 * 
+		 * @param in table
+		 * @param size of each entry in bytes
+		 * @return count
+		 * @throws IOException if table is truncated
+		 */
+		static final int readCount(final ByteBuffer in, final int size) throws IOException {
+			if (in.remaining() < 4) {
+				throw new IOException("Truncated table: " + in.remaining() + " bytes left");
+			}
+			final int count = in.getInt();
+			if ((count < 0) || (count > (in.remaining() / size))) {
+				throw new IOException("Truncated table: " + count + " entries of " + size + " bytes, "
+						+ in.remaining() + " bytes left");
+			}
+			return count;
+		}
+	}
+
+	/**
+	 * Open-addressed hash table of kerning pairs (linear probing, load factor at most 1/2), so a
+	 * lookup of a pair not in the table usually ends at its first empty slot
+	 */
+	static final class KerningTable {
+		private static final long EMPTY = -1L;
+		private static final int CODEPOINT_BITS = 21;
+		private final long[] keys;
+		private final int[] adjustments;
+		private final int mask;
+		private final int size;
+
+		/**
+		 * @param pairs first, second, adjustment (codePoints up to U+10FFFF)
+		 */
+		KerningTable(final int[] pairs) {
+			final int count = pairs.length / 3;
+			int capacity = 2;
+			while (capacity < (count * 2)) {
+				capacity <<= 1;
+			}
+			this.keys = new long[capacity];
+			this.adjustments = new int[capacity];
+			this.mask = capacity - 1;
+			Arrays.fill(keys, EMPTY);
+			int size = 0;
+			for (int i = 0; i < pairs.length; i += 3) {
+				final long key = keyOf(pairs[i], pairs[i + 1]);
+				int slot = slotOf(key);
+				while ((keys[slot] != EMPTY) && (keys[slot] != key)) {
+					slot = (slot + 1) & mask;
+				}
+				if (keys[slot] == EMPTY) {
+					size++;
+				}
+				keys[slot] = key;
+				adjustments[slot] = pairs[i + 2];
+			}
+			this.size = size;
+		}
+
+		private static final long keyOf(final int first, final int second) {
+			return (((long) first << CODEPOINT_BITS) | second);
+		}
+
+		private final int slotOf(final long key) {
+			return ((int) ((key * 0x9E3779B97F4A7C15L) >>> 32)) & mask;
+		}
+
+		/**
+		 * @param first codePoint (negative at start of text)
+		 * @param second codePoint
+		 * @return adjustment of advance, 0 if pair is not in table
+		 */
+		int adjustmentOf(final int first, final int second) {
+			if (first < 0) {
+				return 0;
+			}
+			final long key = keyOf(first, second);
+			for (int slot = slotOf(key);; slot = (slot + 1) & mask) {
+				final long k = keys[slot];
+				if (k == key) {
+					return adjustments[slot];
+				} else if (k == EMPTY) {
+					return 0;
+				}
+			}
+		}
+
+		int size() {
+			return size;
+		}
+	}
+
+	/**
+	 * Two-level page table of {@link IndexedFontMetrics} (byte widths) and {@link PreciseFontMetrics}
+	 * (short advances): pages without any covered codePoint share one page of missing values, pages
+	 * fully inside a span and not covered otherwise share one uniform page per value; other pages
+	 * are owned by the table.
+	 * 
+	 * @param <P> page type (256 values)
+	 */
+	private abstract static class PageTableBuilder<P> {
+		private static final int PAGE_BITS = CodePointFontMetrics.PAGE_BITS;
+		private static final int PAGE_MASK = CodePointFontMetrics.PAGE_MASK;
+		private P[] pages;
+		private boolean[] owned;
+
+		abstract P[] newTable(int length);
+
+		/**
+		 * @return new page filled with value
+		 */
+		abstract P newPage(int value);
+
+		abstract P copyOf(P page);
+
+		/**
+		 * Fill [from, to) of page with value
+		 */
+		abstract void fill(P page, int from, int to, int value);
+
+		/**
+		 * @param maxCodePoint highest codePoint of table (-1 if empty)
+		 * @param missing value of codePoints not covered
+		 */
+		final void init(final int maxCodePoint, final int missing) {
+			pages = newTable((maxCodePoint < 0) ? 0 : ((maxCodePoint >>> PAGE_BITS) + 1));
+			owned = new boolean[pages.length];
+			Arrays.fill(pages, newPage(missing));
+		}
+
+		/**
+		 * @return page owned by this table (copy of shared page on first use), to be filled by caller
+		 */
+		final P own(final int page) {
+			if (!owned[page]) {
+				pages[page] = copyOf(pages[page]);
+				owned[page] = true;
+			}
+			return pages[page];
+		}
+
+		/**
+		 * Set a covered page
+		 */
+		final void put(final int page, final P values) {
+			pages[page] = values;
+			owned[page] = true;
+		}
+
+		/**
+		 * Fill spans over pages
+		 * 
+		 * @param spans start, end, value (sorted, not overlapping)
+		 * @return pages
+		 */
+		final P[] build(final int[] spans) {
+			final HashMap<Integer, P> uniform = new HashMap<Integer, P>();
+			for (int i = 0; i < spans.length; i += 3) {
+				final int start = spans[i];
+				final int end = spans[i + 1];
+				final int value = spans[i + 2];
+				for (int page = (start >>> PAGE_BITS); page <= (end >>> PAGE_BITS); page++) {
+					final int pageStart = (page << PAGE_BITS);
+					final int pageEnd = (pageStart | PAGE_MASK);
+					if ((start <= pageStart) && (pageEnd <= end) && !owned[page]) {
+						P shared = uniform.get(Integer.valueOf(value));
+						if (shared == null) {
+							shared = newPage(value);
+							uniform.put(Integer.valueOf(value), shared);
+						}
+						pages[page] = shared;
+						continue;
+					}
+					fill(own(page), (Math.max(start, pageStart) & PAGE_MASK),
+							(Math.min(end, pageEnd) & PAGE_MASK) + 1, value);
+				}
+			}
+			return pages;
+		}
+	}
+
+	public static class IndexedFontMetrics extends CodePointFontMetrics {
+		/**
+		 * Page table entry for codePoints not covered by ranges (never a valid width)
+		 */
+		private static final byte MISSING = -1;
+
+		/**
+		 * Lookup structure built from loaded ranges and widths
+		 */
+		public static enum Lookup {
+			/**
+			 * O(1) two-level page table (one byte per codePoint of covered pages, loaded widths are
+			 * not kept)
+			 */
+			PAGED,
+			/**
+			 * O(log n) binary search over ranges (no extra memory, widths can stay mapped)
+			 */
+			BINARY_SEARCH,
+			/**
+			 * O(1) two-level page table, each page stored as 0, 4, 6 or 8-bit indices into its own
+			 * palette of widths (compact, loaded widths are not kept)
+			 */
+			PALETTE;
+		}
+
+		private final String fontName;
+		private final int fontStyle;
+		private final int fontSize;
+		private final byte missingWidth; // One em, like FONT_SIZE for the default table
+		private final int[] ranges; // Only for binary search
+		private final ByteBuffer widths; // Only for binary search, heap or mapped
+		private final int[] offsets; // Only for binary search
+		private final int[] spans; // Only for binary search, uniform-width runs: start, end, width
+		private final byte[][] pages;
+		private final PaletteTable palette;
+		private final FontMetricsHelper fallback;
+
+		private static class Holder {
+			static final IndexedFontMetrics INSTANCE;
+
+			static {
+				try {
+					// Generated from src/main/table/fontmetrics.bin (no resource I/O), see generator/
+					INSTANCE = fromByteBuffer(ByteBuffer.wrap(FontMetricsTable.toByteArray()), Lookup.PAGED, false);
+				} catch (Exception e) {
+					log.error("IndexedFontMetrics not available: " + e);
+					throw new RuntimeException(e);
+				}
+			}
+		}
+
+		public static IndexedFontMetrics getDefaultInstance() {
+			return Holder.INSTANCE;
+		}
+
+		private IndexedFontMetrics(final String fontName, final int fontStyle, final int fontSize,
+				final int[] ranges, final ByteBuffer widths, final int[] spans, final KerningTable kerning,
+				final Lookup lookup) {
+			super(0, kerning);
+			this.fontName = fontName;
+			this.fontStyle = fontStyle;
+			this.fontSize = fontSize;
+			this.missingWidth = (byte) Math.min(Math.max(fontSize, 0), 127);
+			// Page tables hold every width, do not pin loaded widths (maybe a view over the whole file)
+			final boolean search = (lookup == Lookup.BINARY_SEARCH);
+			this.ranges = (search ? ranges : null);
+			this.widths = (search ? widths : null);
+			this.offsets = (search ? buildOffsets(ranges) : null);
+			this.spans = (search ? spans : null);
+			this.pages = ((lookup == Lookup.PAGED) ? buildPages(ranges, widths, spans) : null);
+			this.palette = ((lookup == Lookup.PALETTE) //
+					? new PaletteTable(buildPages(ranges, widths, spans)) //
+					: null);
+			this.fallback = null;
+			fillLatin1();
+		}
+
+		private IndexedFontMetrics(final IndexedFontMetrics table, final FontMetricsHelper fallback) {
+			super(0, table.getKerning());
+			this.fontName = table.fontName;
+			this.fontStyle = table.fontStyle;
+			this.fontSize = table.fontSize;
+			this.missingWidth = table.missingWidth;
+			this.ranges = table.ranges;
+			this.widths = table.widths;
+			this.offsets = table.offsets;
+			this.spans = table.spans;
+			this.pages = table.pages;
+			this.palette = table.palette;
+			this.fallback = fallback;
+			fillLatin1();
+		}
+
+		/**
+		 * @return font name of table ({@link SimpleFontMetrics#FONT_NAME} for v1 tables)
+		 */
+		public String getFontName() {
+			return fontName;
+		}
+
+		/**
+		 * @return font style of table (java.awt.Font style: 0 plain, 1 bold, 2 italic)
+		 */
+		public int getFontStyle() {
+			return fontStyle;
+		}
+
+		public int getFontSize() {
+			return fontSize;
+		}
+
+		/**
+		 * Hybrid metrics: serve from this table and send only misses to fallback metrics, whose
+		 * results are recorded in a concurrent side table ({@link LazyFontMetrics})
+		 * 
+		 * @param fallback metrics for codePoints not covered by this table (usually
+		 *            {@link SystemFontMetrics})
+		 * @return new metrics sharing this table
+		 */
+		public IndexedFontMetrics withFallback(final FontMetricsHelper fallback) {
+			return new IndexedFontMetrics(this, (fallback instanceof LazyFontMetrics) //
+					? fallback //
+					: new LazyFontMetrics(fallback));
+		}
+
+		/**
+		 * Offset in widths of the first codePoint of each range (prefix sum of range sizes)
+		 */
+		private static final int[] buildOffsets(final int[] ranges) {
+			final int[] offsets = new int[ranges.length >>> 1];
+			int offset = 0;
+			for (int i = 0, o = 0; o < offsets.length; i += 2, o++) {
+				offsets[o] = offset;
+				offset += (ranges[i + 1] - ranges[i]) + 1;
+			}
+			return offsets;
+		}
+
+		/**
+		 * Binary search over ranges (sorted by lower bound and not overlapping, as written by
+		 * {@link SystemFontMetrics#exportFile(List, String)})
+		 */
+		private int findOffsetByBinarySearch(final int codePoint) {
+			int low = 0;
+			int high = offsets.length - 1;
+			while (low <= high) {
+				final int mid = (low + high) >>> 1;
+				final int i = mid << 1;
+				if (codePoint < ranges[i]) {
+					high = mid - 1;
+				} else if (codePoint > ranges[i + 1]) {
+					low = mid + 1;
+				} else {
+					return (offsets[mid] + (codePoint - ranges[i]));
+				}
+			}
+			return -1;
+		}
+
+		/**
+		 * Binary search over spans (sorted by start and not overlapping)
+		 */
+		private byte findWidthBySpanSearch(final int codePoint) {
+			int low = 0;
+			int high = (spans.length / 3) - 1;
+			while (low <= high) {
+				final int mid = (low + high) >>> 1;
+				final int i = mid * 3;
+				if (codePoint < spans[i]) {
+					high = mid - 1;
+				} else if (codePoint > spans[i + 1]) {
+					low = mid + 1;
+				} else {
+					return (byte) spans[i + 2];
+				}
+			}
+			return MISSING;
+		}
+
+		/**
+		 * Build a two-level lookup table: high bits of codePoint select a page, low bits select the
+		 * width inside the page (see {@link PageTableBuilder}).
+		 */
+		private static final byte[][] buildPages(final int[] ranges, final ByteBuffer widths,
+				final int[] spans) {
+			int maxCodePoint = -1;
+			for (int i = 0; i < ranges.length; i += 2) {
+				maxCodePoint = Math.max(maxCodePoint, ranges[i + 1]);
+			}
+			for (int i = 0; i < spans.length; i += 3) {
+				maxCodePoint = Math.max(maxCodePoint, spans[i + 1]);
+			}
+			final PageTableBuilder<byte[]> table = new PageTableBuilder<byte[]>() {
+				@Override
+				byte[][] newTable(final int length) {
+					return new byte[length][];
+				}
+
+				@Override
+				byte[] newPage(final int value) {
+					final byte[] page = new byte[PAGE_SIZE];
+					Arrays.fill(page, (byte) value);
+					return page;
+				}
+
+				@Override
+				byte[] copyOf(final byte[] page) {
+					return page.clone();
+				}
+
+				@Override
+				void fill(final byte[] page, final int from, final int to, final int value) {
+					Arrays.fill(page, from, to, (byte) value);
+				}
+			};
+			table.init(maxCodePoint, MISSING);
+			final int widthCount = widths.limit();
+			int offset = 0;
+			for (int i = 0; i < ranges.length; i += 2) {
+				final int lower = ranges[i];
+				final int upper = ranges[i + 1];
+				for (int codePoint = lower; (codePoint <= upper) && (offset < widthCount); codePoint++) {
+					table.own(codePoint >>> PAGE_BITS)[codePoint & PAGE_MASK] = widths.get(offset++);
+				}
+			}
+			return table.build(spans);
+		}
+
+		public byte widthOf(final int codePoint) {
+			if (codePoint < 32) {
+				return 0;
+			}
+			final byte width;
+			if (pages != null) {
+				final int page = codePoint >>> PAGE_BITS;
+				width = ((page < pages.length) ? pages[page][codePoint & PAGE_MASK] : MISSING);
+			} else if (palette != null) {
+				width = palette.widthOf(codePoint);
+			} else {
+				final int offset = findOffsetByBinarySearch(codePoint);
+				final byte w = (((offset < 0) || (offset >= widths.limit())) ? MISSING : widths.get(offset));
+				width = ((w == MISSING) ? findWidthBySpanSearch(codePoint) : w);
+			}
+			if (width == MISSING) {
+				return widthOfMissing(codePoint);
+			}
+			return width;
+		}
+
+		private byte widthOfMissing(final int codePoint) {
+			if (fallback == null) {
+				return missingWidth;
+			}
+			return fallback.widthOf(codePoint);
+		}
+
+		public static IndexedFontMetrics importFile(final URL url) throws IOException {
+			return importFile(url, Lookup.PAGED);
+		}
+
+		/**
+		 * Import table
+		 * 
+		 * @param url of table
+		 * @param lookup structure to build
+		 * @return metrics
+		 * @throws IOException if error
+		 */
+		public static IndexedFontMetrics importFile(final URL url, final Lookup lookup) throws IOException {
+			return fromByteBuffer(loadTable(url), lookup, false); // Buffer is not shared, no copy
+		}
+
+		public static IndexedFontMetrics importFile(final File file) throws IOException {
+			return importFile(file, Lookup.PAGED);
+		}
+
+		public static IndexedFontMetrics importFile(final File file, final Lookup lookup) throws IOException {
+			return importFile(file.toURI().toURL(), lookup);
+		}
+
+		public static IndexedFontMetrics importFile(final String file) throws IOException {
+			return importFile(file, Lookup.PAGED);
+		}
+
+		public static IndexedFontMetrics importFile(final String file, final Lookup lookup)
+				throws IOException {
+			return importFile(new File(file), lookup);
+		}
+
+		/**
+		 * Wrap a table (v1 or v2) held by caller, heap or direct, without copying widths; ranges, pages
+		 * and spans are read with bulk gets. Buffer position and limit are not changed, its content
+		 * must not be changed while metrics are in use.
+		 * 
+		 * @param bb table, from position to limit
+		 * @return metrics (binary search over ranges, widths read in place)
+		 * @throws IOException if table is not valid
+		 */
+		public static IndexedFontMetrics wrap(final ByteBuffer bb) throws IOException {
+			return wrap(bb, Lookup.BINARY_SEARCH);
+		}
+
+		/**
+		 * Wrap a table (v1 or v2) held by caller, see {@link #wrap(ByteBuffer)}
+		 * 
+		 * @param bb table, from position to limit
+		 * @param lookup structure to build ({@link Lookup#PAGED} and {@link Lookup#PALETTE} build
+		 *            their own tables on heap)
+		 * @return metrics
+		 * @throws IOException if table is not valid
+		 */
+		public static IndexedFontMetrics wrap(final ByteBuffer bb, final Lookup lookup) throws IOException {
+			final ByteBuffer table = bb.slice(); // Big-endian view, caller position is not changed
+			if (isCompressed(table)) {
+				throw new IOException("Compressed table can not be wrapped");
+			}
+			try {
+				return fromByteBuffer(table, lookup, false);
+			} catch (BufferUnderflowException | IndexOutOfBoundsException e) {
+				throw new IOException("Truncated table", e);
+			}
+		}
+
+		/**
+		 * Map table file read-only and serve widths straight from the mapping (binary search over
+		 * ranges, no copy of widths); the page cache copy is shared by every process mapping the same
+		 * file
+		 * 
+		 * @param file of table
+		 * @return metrics
+		 * @throws IOException if error
+		 */
+		public static IndexedFontMetrics mapFile(final File file) throws IOException {
+			FileChannel chan = null;
+			try {
+				chan = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+				// Mapping remains valid after channel is closed
+				final MappedByteBuffer bb = chan.map(FileChannel.MapMode.READ_ONLY, 0, chan.size());
+				if (isCompressed(bb)) {
+					throw new IOException("Compressed table can not be mapped: " + file);
+				}
+				return fromByteBuffer(bb, Lookup.BINARY_SEARCH, false);
+			} finally {
+				closeSilent(chan);
+			}
+		}
+
+		public static IndexedFontMetrics mapFile(final String file) throws IOException {
+			return mapFile(new File(file));
+		}
+
+		/**
+		 * Read table
+		 * 
+		 * @param bb table
+		 * @param lookup structure to build
+		 * @param copy widths to heap, or keep a view over bb
+		 * @return metrics
+		 */
+		static final IndexedFontMetrics fromByteBuffer(final ByteBuffer bb, final Lookup lookup,
+				final boolean copy) throws IOException {
+			if (TableHeader.isVersioned(bb)) {
+				return fromByteBufferV2(bb, lookup, copy);
+			}
+			final int rangeCount = TableHeader.readCount(bb, 8); // Number of Ranges
+			final int[] ranges = TableHeader.readInts(bb, rangeCount * 2);
+			final int widthCount = TableHeader.readCount(bb, 1); // Number of Widths
+			final ByteBuffer widths = readWidths(bb, widthCount, copy);
+			bb.flip();
+			return new IndexedFontMetrics(FONT_NAME, 0, FONT_SIZE, ranges, widths, new int[0], null, lookup);
+		}
+
+		private static final IndexedFontMetrics fromByteBufferV2(final ByteBuffer bb, final Lookup lookup,
+				final boolean copy) throws IOException {
+			final TableHeader header = TableHeader.read(bb);
+			if (header.version != FORMAT_V2) {
+				throw new IOException("Unsupported format version: " + header.version //
+						+ ((header.version == FORMAT_V3) ? " (use PreciseFontMetrics)" : ""));
+			}
+			final ByteBuffer in = header.body;
+			final int pageCount = TableHeader.readCount(in, 4 + PAGE_SIZE); // Page Directory
+			final int[] pages = TableHeader.readInts(in, pageCount);
+			final int[] ranges = new int[pageCount * 2];
+			for (int i = 0, o = 0; i < pageCount; i++, o += 2) {
+				ranges[o] = (pages[i] << PAGE_BITS);
+				ranges[o + 1] = (pages[i] << PAGE_BITS) | PAGE_MASK;
+			}
+			final ByteBuffer widths = readWidths(in, pageCount * PAGE_SIZE, copy);
+			final int[] spans = TableHeader.readSpans(in);
+			final KerningTable kerning = TableHeader.readKerning(in);
+			bb.position(in.position());
+			return new IndexedFontMetrics(header.fontName, header.fontStyle, header.fontSize, //
+					ranges, widths, spans, kerning, lookup);
+		}
+
+		/**
+		 * Read widths
+		 * 
+		 * @param bb table
+		 * @param widthCount number of widths
+		 * @param copy widths to heap, or keep a view over bb
+		 * @return widths
+		 * @throws IOException if table is truncated
+		 */
+		private static final ByteBuffer readWidths(final ByteBuffer bb, final int widthCount,
+				final boolean copy) throws IOException {
+			if ((widthCount < 0) || (widthCount > bb.remaining())) {
+				throw new IOException("Truncated table: " + widthCount + " widths, " + bb.remaining()
+						+ " bytes left");
+			}
+			if (copy) {
+				final byte[] buf = new byte[widthCount];
+				bb.get(buf);
+				return ByteBuffer.wrap(buf);
+			}
+			final ByteBuffer widths = bb.slice();
+			widths.limit(widthCount);
+			bb.position(bb.position() + widthCount);
+			return widths;
+		}
+
+		/**
+		 * Page table with each page stored as packed indices into its own palette of widths: 0 bits
+		 * (uniform page, like the shared page of missing codePoints), 4, 6 or 8 bits per codePoint.
+		 * Identical pages share one slot. Lookup has no branches: an index is read with an unaligned
+		 * 16-bit load from packed bytes.
+		 */
+		private static final class PaletteTable {
+			private final int[] pageSlot;
+			private final int[] slotBits;
+			private final int[] slotData; // Offset in data
+			private final int[] slotPalette; // Offset in palettes
+			private final byte[] data;
+			private final byte[] palettes;
+
+			PaletteTable(final byte[][] pages) {
+				final int count = pages.length;
+				pageSlot = new int[count];
+				final int[] bitsOut = new int[count];
+				final int[] dataOffsets = new int[count];
+				final int[] paletteOffsets = new int[count];
+				final ByteArrayOutputStream dataOut = new ByteArrayOutputStream();
+				final ByteArrayOutputStream paletteOut = new ByteArrayOutputStream();
+				final HashMap<ByteBuffer, Integer> encoded = new HashMap<ByteBuffer, Integer>(); // By content
+				final int[] indexOf = new int[256];
+				int slots = 0;
+				for (int p = 0; p < count; p++) {
+					final byte[] page = pages[p];
+					final Integer same = encoded.get(ByteBuffer.wrap(page));
+					if (same != null) {
+						pageSlot[p] = same.intValue();
+						continue;
+					}
+					final int slot = slots++;
+					encoded.put(ByteBuffer.wrap(page), Integer.valueOf(slot));
+					pageSlot[p] = slot;
+					// Palette in order of first appearance
+					Arrays.fill(indexOf, -1);
+					final byte[] palette = new byte[PAGE_SIZE];
+					int distinct = 0;
+					for (final byte width : page) {
+						if (indexOf[width & 0xFF] < 0) {
+							indexOf[width & 0xFF] = distinct;
+							palette[distinct++] = width;
+						}
+					}
+					final int bits = ((distinct == 1) ? 0 : (distinct <= 16) ? 4 : (distinct <= 64) ? 6 : 8);
+					final byte[] packed = new byte[((PAGE_SIZE * bits) + 7) >>> 3];
+					for (int i = 0; (bits > 0) && (i < PAGE_SIZE); i++) {
+						final int bitPos = i * bits;
+						final int v = indexOf[page[i] & 0xFF] << (bitPos & 7);
+						packed[bitPos >>> 3] |= (byte) v;
+						if ((v >>> 8) != 0) {
+							packed[(bitPos >>> 3) + 1] |= (byte) (v >>> 8);
+						}
+					}
+					bitsOut[slot] = bits;
+					dataOffsets[slot] = dataOut.size();
+					paletteOffsets[slot] = paletteOut.size();
+					dataOut.write(packed, 0, packed.length);
+					paletteOut.write(palette, 0, distinct);
+				}
+				dataOut.write(0); // Padding for 16-bit load
+				dataOut.write(0);
+				this.slotBits = Arrays.copyOf(bitsOut, slots);
+				this.slotData = Arrays.copyOf(dataOffsets, slots);
+				this.slotPalette = Arrays.copyOf(paletteOffsets, slots);
+				this.data = dataOut.toByteArray();
+				this.palettes = paletteOut.toByteArray();
+			}
+
+			byte widthOf(final int codePoint) {
+				final int page = codePoint >>> PAGE_BITS;
+				if (page >= pageSlot.length) {
+					return MISSING;
+				}
+				final int slot = pageSlot[page];
+				final int bits = slotBits[slot];
+				final int bitPos = (codePoint & PAGE_MASK) * bits;
+				final int b = slotData[slot] + (bitPos >>> 3);
+				final int packed = (data[b] & 0xFF) | ((data[b + 1] & 0xFF) << 8);
+				final int index = (packed >>> (bitPos & 7)) & ((1 << bits) - 1);
+				return palettes[slotPalette[slot] + index];
+			}
+		}
+	}
+
+	/**
+	 * Fixed-point advances from a v3 table ({@link SimpleFontMetrics#FORMAT_V3}, exported by
+	 * {@link SystemFontMetrics} with fractional metrics): text widths are accumulated without
+	 * per-glyph rounding and rounded once, like a renderer with FRACTIONALMETRICS_ON.
+	 */
+	public static class PreciseFontMetrics extends CodePointFontMetrics {
+		/**
+		 * Page table entry for codePoints not covered by table (never a valid advance)
+		 */
+		private static final short MISSING = Short.MIN_VALUE;
+		private final String fontName;
+		private final int fontStyle;
+		private final int fontSize;
+		private final short[][] pages;
+		private final int missingAdvance;
+
+		private PreciseFontMetrics(final TableHeader header, final short[][] pages,
+				final KerningTable kerning) {
+			super(header.fractionBits, kerning);
+			this.fontName = header.fontName;
+			this.fontStyle = header.fontStyle;
+			this.fontSize = header.fontSize;
+			this.pages = pages;
+			this.missingAdvance = (Math.max(header.fontSize, 0) << header.fractionBits); // One em
+			fillLatin1();
+		}
+
+		public String getFontName() {
+			return fontName;
+		}
+
+		public int getFontStyle() {
+			return fontStyle;
+		}
+
+		public int getFontSize() {
+			return fontSize;
+		}
+
+		protected int advanceOf(final int codePoint) {
+			if (codePoint < 32) {
+				return 0;
+			}
+			final int page = codePoint >>> PAGE_BITS;
+			final int advance = ((page < pages.length) ? pages[page][codePoint & PAGE_MASK] : MISSING);
+			return ((advance == MISSING) ? missingAdvance : advance);
+		}
+
+		public byte widthOf(final int codePoint) {
+			return (byte) Math.min(toPixels(advanceOf(codePoint)), 127);
+		}
+
+		public static PreciseFontMetrics importFile(final URL url) throws IOException {
+			return fromByteBuffer(loadTable(url));
+		}
+
+		public static PreciseFontMetrics importFile(final File file) throws IOException {
+			return importFile(file.toURI().toURL());
+		}
+
+		public static PreciseFontMetrics importFile(final String file) throws IOException {
+			return importFile(new File(file));
+		}
+
+		static final PreciseFontMetrics fromByteBuffer(final ByteBuffer bb) throws IOException {
+			if (!TableHeader.isVersioned(bb)) {
+				throw new IOException("Unsupported format version: " + FORMAT_V1);
+			}
+			final TableHeader header = TableHeader.read(bb);
+			if (header.version != FORMAT_V3) {
+				throw new IOException("Unsupported format version: " + header.version //
+						+ " (use IndexedFontMetrics)");
+			}
+			final ByteBuffer in = header.body;
+			final int pageCount = TableHeader.readCount(in, 4 + (PAGE_SIZE * 2)); // Page Directory
+			final int[] directory = TableHeader.readInts(in, pageCount);
+			int maxCodePoint = -1;
+			for (int i = 0; i < directory.length; i++) {
+				maxCodePoint = Math.max(maxCodePoint, (directory[i] << PAGE_BITS) | PAGE_MASK);
+			}
+			final short[][] covered = new short[directory.length][PAGE_SIZE];
+			for (int i = 0; i < directory.length; i++) {
+				in.asShortBuffer().get(covered[i]);
+				in.position(in.position() + (PAGE_SIZE * 2));
+			}
+			final int[] spans = TableHeader.readSpans(in);
+			for (int i = 0; i < spans.length; i += 3) {
+				maxCodePoint = Math.max(maxCodePoint, spans[i + 1]);
+			}
+			final PageTableBuilder<short[]> table = new PageTableBuilder<short[]>() {
+				@Override
+				short[][] newTable(final int length) {
+					return new short[length][];
+				}
+
+				@Override
+				short[] newPage(final int value) {
+					final short[] page = new short[PAGE_SIZE];
+					Arrays.fill(page, (short) value);
+					return page;
+				}
+
+				@Override
+				short[] copyOf(final short[] page) {
+					return page.clone();
+				}
+
+				@Override
+				void fill(final short[] page, final int from, final int to, final int value) {
+					Arrays.fill(page, from, to, (short) value);
+				}
+			};
+			table.init(maxCodePoint, MISSING);
+			for (int i = 0; i < directory.length; i++) {
+				table.put(directory[i], covered[i]);
+			}
+			final short[][] pages = table.build(spans);
+			final KerningTable kerning = TableHeader.readKerning(in);
+			bb.position(in.position());
+			return new PreciseFontMetrics(header, pages, kerning);
+		}
+	}
+
+	/**
+	 * Per-codePoint widths of another {@link FontMetricsHelper} (usually {@link SystemFontMetrics}),
+	 * asked only on first sight of each codePoint and kept in a lock-free table of lazily allocated
+	 * pages covering all of Unicode.
+	 */
+	public static class LazyFontMetrics extends CodePointFontMetrics {
+		private static final byte UNKNOWN = -1;
+		private final FontMetricsHelper metrics;
+		private final AtomicReferenceArray<byte[]> pages;
+
+		public LazyFontMetrics(final FontMetricsHelper metrics) {
+			this.metrics = metrics;
+			this.pages = new AtomicReferenceArray<byte[]>((Character.MAX_CODE_POINT >>> PAGE_BITS) + 1);
+			fillLatin1();
+		}
+
+		public byte widthOf(final int codePoint) {
+			if ((codePoint < 0) || (codePoint > Character.MAX_CODE_POINT)) {
+				return metrics.widthOf(codePoint);
+			}
+			final int index = codePoint >>> PAGE_BITS;
+			byte[] page = pages.get(index);
+			if (page == null) {
+				page = new byte[PAGE_SIZE];
+				Arrays.fill(page, UNKNOWN);
+				if (!pages.compareAndSet(index, null, page)) {
+					page = pages.get(index);
+				}
+			}
+			byte width = page[codePoint & PAGE_MASK];
+			if (width == UNKNOWN) {
+				// Racing threads compute the same value, last write wins
+				width = metrics.widthOf(codePoint);
+				page[codePoint & PAGE_MASK] = width;
+			}
+			return width;
+		}
+	}
+
+	/**
+	 * Bounded memoizing cache of string widths in front of any {@link FontMetricsHelper}. Entries
+	 * are weighted by string length and evicted in LRU order, per lock stripe.
+	 */
+	public static class CachedFontMetrics implements FontMetricsHelper {
+		private static final int STRIPES = 16;
+		/**
+		 * Minimum maxChars (one char per lock stripe)
+		 */
+		public static final int MIN_CHARS = STRIPES;
+		private final FontMetricsHelper metrics;
+		private final CacheStripe[] stripes;
+		private final LongAdder hits = new LongAdder();
+		private final LongAdder misses = new LongAdder();
+		private final LongAdder evictions = new LongAdder();
+
+		/**
+		 * Create cache
+		 * 
+		 * @param metrics to wrap
+		 * @param maxChars maximum sum of the length of cached strings, at least {@link #MIN_CHARS}
+		 */
+		public CachedFontMetrics(final FontMetricsHelper metrics, final int maxChars) {
+			if (maxChars < MIN_CHARS) {
+				throw new IllegalArgumentException("Invalid maxChars: " + maxChars + " (min " + MIN_CHARS + ")");
+			}
+			this.metrics = metrics;
+			this.stripes = new CacheStripe[STRIPES];
+			for (int i = 0; i < STRIPES; i++) {
+				stripes[i] = new CacheStripe(maxChars / STRIPES);
+			}
+		}
+
+		private final CacheStripe stripeOf(final String input) {
+			return stripes[stripeIndexOf(input)];
+		}
+
+		/**
+		 * @return index of lock stripe (and LRU order) of input
+		 */
+		static final int stripeIndexOf(final String input) {
+			final int h = input.hashCode();
+			return (h ^ (h >>> 16)) & (STRIPES - 1);
+		}
+
+		public int widthOf(final String input) {
+			final CacheStripe stripe = stripeOf(input);
+			Integer width;
+			synchronized (stripe) {
+				width = stripe.get(input);
+			}
+			if (width != null) {
+				hits.increment();
+				return width.intValue();
+			}
+			misses.increment();
+			width = Integer.valueOf(metrics.widthOf(input));
+			synchronized (stripe) {
+				evictions.add(stripe.add(input, width));
+			}
+			return width.intValue();
+		}
+
+		public int widthOf(final CharSequence input) {
+			if (input instanceof String) {
+				return widthOf((String) input);
+			}
+			return metrics.widthOf(input);
+		}
+
+		public int widthOf(final CharSequence input, final int start, final int end) {
+			return metrics.widthOf(input, start, end);
+		}
+
+		public int widthOf(final char[] input, final int off, final int len) {
+			return metrics.widthOf(input, off, len);
+		}
+
+		public int widthOf(final byte[] utf8, final int off, final int len) {
+			return metrics.widthOf(utf8, off, len);
+		}
+
+		public int widthOf(final ByteBuffer utf8) {
+			return metrics.widthOf(utf8);
+		}
+
+		public byte widthOf(final int codePoint) {
+			return metrics.widthOf(codePoint);
+		}
+
+		public long getHits() {
+			return hits.sum();
+		}
+
+		public long getMisses() {
+			return misses.sum();
+		}
+
+		public long getEvictions() {
+			return evictions.sum();
+		}
+
+		/**
+		 * @return number of cached strings
+		 */
+		public int size() {
+			int size = 0;
+			for (final CacheStripe stripe : stripes) {
+				synchronized (stripe) {
+					size += stripe.size();
+				}
+			}
+			return size;
+		}
+
+		public void clear() {
+			for (final CacheStripe stripe : stripes) {
+				synchronized (stripe) {
+					stripe.clear();
+					stripe.weight = 0;
+				}
+			}
+		}
+
+		@Override
+		public String toString() {
+			return "CachedFontMetrics [size=" + size() + " hits=" + getHits() //
+					+ " misses=" + getMisses() + " evictions=" + getEvictions() + "]";
+		}
+
+		/**
+		 * LRU map weighted by string length (guarded by its own monitor)
+		 */
+		private static final class CacheStripe extends LinkedHashMap<String, Integer> {
+			private static final long serialVersionUID = 1L;
+			private final int maxWeight;
+			private int weight = 0;
+
+			CacheStripe(final int maxWeight) {
+				super(16, 0.75f, true);
+				this.maxWeight = maxWeight;
+			}
+
+			/**
+			 * @return number of evicted entries
+			 */
+			int add(final String key, final Integer value) {
+				if (key.length() > maxWeight) {
+					return 0;
+				}
+				if (put(key, value) == null) {
+					weight += key.length();
+				}
+				int evicted = 0;
+				final Iterator<String> it = keySet().iterator();
+				while ((weight > maxWeight) && it.hasNext()) {
+					weight -= it.next().length();
+					it.remove();
+					evicted++;
+				}
+				return evicted;
+			}
+		}
+	}
+
+	private static final int MAX_RESOURCE_SIZE = Integer.MAX_VALUE - 8; // Max array size
+
+	private static final ByteBuffer loadTable(final URL url) throws IOException {
+		final ByteBuffer bb = readResource(url);
+		return (isCompressed(bb) ? decompress(bb) : bb);
+	}
+
+	/**
+	 * Read whole resource into a heap buffer: file channel for file: URLs, stream until end of
+	 * stream otherwise (content length is only a size hint, may be -1 or wrong, e.g. nested jars)
+	 */
+	private static final ByteBuffer readResource(final URL url) throws IOException {
+		final long begin = System.nanoTime();
+		final ByteBuffer bb = ("file".equals(url.getProtocol()) ? readFile(url) : readStream(url));
+		if (log.isDebugEnabled()) {
+			log.debug("Read resource: " + url + " (" + bb.remaining() + " bytes, "
+					+ ((System.nanoTime() - begin) / 1000) + "us)");
+		}
+		return bb;
+	}
+
+	private static final ByteBuffer readFile(final URL url) throws IOException {
+		File file;
+		try {
+			file = new File(url.toURI());
+		} catch (URISyntaxException | IllegalArgumentException e) {
+			file = new File(url.getPath());
+		}
+		final FileChannel chan = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+		try {
+			final long size = chan.size();
+			if (size > MAX_RESOURCE_SIZE) {
+				throw new IOException("Resource too large: " + url + " (" + size + " bytes)");
+			}
+			final ByteBuffer bb = ByteBuffer.allocate((int) size);
+			while (bb.hasRemaining() && (chan.read(bb) != -1)) {
+				continue;
+			}
+			bb.flip();
+			return bb;
+		} finally {
+			closeSilent(chan);
+		}
+	}
+
+	private static final ByteBuffer readStream(final URL url) throws IOException {
+		final URLConnection conn = url.openConnection();
+		conn.setDoOutput(false);
+		conn.setUseCaches(true);
+		conn.connect();
+		final InputStream is = conn.getInputStream();
+		try {
+			final int hint = conn.getContentLength();
+			// One byte over the hint: a correct hint reaches end of stream without growing
+			byte[] buf = new byte[((hint > 0) && (hint < MAX_RESOURCE_SIZE)) ? (hint + 1) : 8192];
+			int len = 0;
+			int n;
+			while ((n = is.read(buf, len, buf.length - len)) != -1) {
+				len += n;
+				if (len == buf.length) {
+					if (len >= MAX_RESOURCE_SIZE) {
+						throw new IOException("Resource too large: " + url);
+					}
+					buf = Arrays.copyOf(buf, (int) Math.min((long) len << 1, MAX_RESOURCE_SIZE));
+				}
+			}
+			return ByteBuffer.wrap(buf, 0, len);
+		} finally {
+			closeSilent(is);
+		}
+	}
+
+	private static final boolean isCompressed(final ByteBuffer bb) {
+		return ((bb.remaining() >= 2) && ((bb.getShort(bb.position()) & 0xFFFF) == 0x1F8B)); // GZIP magic
+	}
+
+	private static final ByteBuffer decompress(final ByteBuffer bb) throws IOException {
+		final GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(bb.array(), //
+				bb.arrayOffset() + bb.position(), bb.remaining()));
+		try {
+			final ByteArrayOutputStream out = new ByteArrayOutputStream(bb.remaining() * 4);
+			final byte[] b = new byte[TableWriter.BUFFER_SIZE];
+			int len;
+			while ((len = in.read(b)) != -1) {
+				out.write(b, 0, len);
+			}
+			return ByteBuffer.wrap(out.toByteArray());
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Check precision of v3 advances: one em of fontSize must fit in a short
+	 * 
+	 * @param fractionBits of advances
+	 * @param fontSize of table
+	 * @throws IllegalArgumentException if fractionBits is not valid for fontSize
+	 */
+	static final void checkFractionBits(final int fractionBits, final int fontSize) {
+		if ((fractionBits < 0) || (fractionBits > MAX_FRACTION_BITS)
+				|| (((long) Math.max(fontSize, 0) << fractionBits) > Short.MAX_VALUE)) {
+			throw new IllegalArgumentException("Invalid fractionBits: " + fractionBits + " for font size "
+					+ fontSize + " (one em must fit in a short)");
+		}
+	}
+
+	/**
+	 * Fixed-point advance as stored in v3 tables
+	 * 
+	 * @param codePoint measured
+	 * @param advance fixed-point
+	 * @param fractionBits of advance
+	 * @return advance
+	 * @throws IllegalArgumentException if advance does not fit in a short (never clamped)
+	 */
+	static final short toStoredAdvance(final int codePoint, final int advance, final int fractionBits) {
+		if ((advance < 0) || (advance > Short.MAX_VALUE)) {
+			throw new IllegalArgumentException("Advance of U+" + Integer.toHexString(codePoint) //
+					+ " does not fit in fractionBits " + fractionBits + ": " //
+					+ (advance / (double) (1 << fractionBits)) //
+					+ " (max " + (Short.MAX_VALUE >> fractionBits) + ")");
+		}
+		return (short) advance;
+	}
+
+	/**
+	 * Build v2 table (byte widths) in memory
+	 * 
+	 * @param ranges of codePoints
+	 * @param widths of each codePoint in ranges
+	 * @param kerning pairs: first, second, adjustment (sorted)
+	 */
+	static final ByteBuffer toByteBufferV2(final List<List<Integer>> ranges, final byte[] widths,
+			final int[] kerning, final String fontName, final int fontStyle, final int fontSize)
+			throws IOException {
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		writeTableV2(Channels.newChannel(out), ranges, widths, kerning, fontName, fontStyle, fontSize);
+		return ByteBuffer.wrap(out.toByteArray());
+	}
+
+	/**
+	 * Build v3 table (fixed-point short advances) in memory
+	 * 
+	 * @param ranges of codePoints
+	 * @param advances of each codePoint in ranges
+	 * @param kerning pairs: first, second, adjustment (sorted)
+	 */
+	static final ByteBuffer toByteBufferV3(final List<List<Integer>> ranges, final short[] advances,
+			final int[] kerning, final int fractionBits, final String fontName, final int fontStyle,
+			final int fontSize) throws IOException {
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		writeTableV3(Channels.newChannel(out), ranges, advances, kerning, fractionBits, //
+				fontName, fontStyle, fontSize);
+		return ByteBuffer.wrap(out.toByteArray());
+	}
+
+	/**
+	 * Write v2 table (byte widths), see {@link #writeVersionedTable}
+	 * 
+	 * @param out channel (not closed)
+	 * @param ranges of codePoints
+	 * @param widths of each codePoint in ranges
+	 * @param kerning pairs: first, second, adjustment (sorted)
+	 */
+	static final void writeTableV2(final WritableByteChannel out, final List<List<Integer>> ranges,
+			final byte[] widths, final int[] kerning, final String fontName, final int fontStyle,
+			final int fontSize) throws IOException {
+		writeVersionedTable(out, ranges, widths, null, kerning, FORMAT_V2, 0, fontName, fontStyle, fontSize);
+	}
+
+	/**
+	 * Write v3 table (fixed-point short advances), see {@link #writeVersionedTable}
+	 * 
+	 * @param out channel (not closed)
+	 * @param ranges of codePoints
+	 * @param advances of each codePoint in ranges
+	 * @param kerning pairs: first, second, adjustment (sorted)
+	 */
+	static final void writeTableV3(final WritableByteChannel out, final List<List<Integer>> ranges,
+			final short[] advances, final int[] kerning, final int fractionBits, final String fontName,
+			final int fontStyle, final int fontSize) throws IOException {
+		writeVersionedTable(out, ranges, null, advances, kerning, FORMAT_V3, fractionBits, //
+				fontName, fontStyle, fontSize);
+	}
+
+	/**
+	 * Write v2 or v3 table. Body is written twice, first only to compute the CRC of header, so output
+	 * is streamed through a fixed-size buffer and can be compressed (values of the whole table are
+	 * held by caller).
+	 * 
+	 * @param widths of each codePoint in ranges (v2, null for v3)
+	 * @param advances of each codePoint in ranges (v3, null for v2)
+	 */
+	private static final void writeVersionedTable(final WritableByteChannel out,
+			final List<List<Integer>> ranges, final byte[] widths, final short[] advances,
+			final int[] kerning, final int format, final int fractionBits, final String fontName,
+			final int fontStyle, final int fontSize) throws IOException {
+		final boolean precise = (advances != null);
+		// Constant-width runs (CJK, Hangul, Braille, ...) are stored as spans
+		final List<int[]> spans = new ArrayList<int[]>();
+		int[] run = null; // start, end, width
+		int offset = 0;
+		for (final List<Integer> r : ranges) {
+			final int lower = r.get(0).intValue();
+			final int upper = r.get(1).intValue();
+			for (int codePoint = lower; codePoint <= upper; codePoint++) {
+				final int width = (precise ? advances[offset] : widths[offset]);
+				offset++;
+				if ((run != null) && (run[1] + 1 == codePoint) && (run[2] == width)) {
+					run[1] = codePoint;
+					continue;
+				}
+				if ((run != null) && ((run[1] - run[0] + 1) >= MIN_SPAN_LENGTH)) {
+					spans.add(run);
+				}
+				run = new int[] {
+						codePoint, codePoint, width
+				};
+			}
+		}
+		if ((run != null) && ((run[1] - run[0] + 1) >= MIN_SPAN_LENGTH)) {
+			spans.add(run);
+		}
+		final TableWriter check = new TableWriter(null);
+		writeBodyV2(check, ranges, widths, advances, spans, kerning);
+		check.flush();
+		final byte[] name = fontName.getBytes(StandardCharsets.UTF_8);
+		final int headerLength = (((4 + 2 + 2 + 4 + 4 + 4 + 2) + name.length + (precise ? 2 : 0) + 3) & ~3);
+		final TableWriter writer = new TableWriter(out);
+		writer.putInt(FORMAT_MAGIC);
+		writer.putShort(format);
+		writer.putShort(headerLength);
+		writer.putInt(check.getCrc());
+		writer.putInt(fontSize);
+		writer.putInt(fontStyle);
+		writer.putShort(name.length);
+		writer.put(name);
+		if (precise) {
+			writer.putShort(fractionBits);
+		}
+		while (writer.getSize() < headerLength) {
+			writer.put((byte) 0);
+		}
+		writeBodyV2(writer, ranges, widths, advances, spans, kerning);
+		writer.flush();
+	}
+
+	/**
+	 * Write page directory, pages of the codePoints not in spans (256 per page, in order), spans and
+	 * kerning pairs
+	 */
+	private static final void writeBodyV2(final TableWriter out, final List<List<Integer>> ranges,
+			final byte[] widths, final short[] advances, final List<int[]> spans, final int[] kerning)
+			throws IOException {
+		final boolean precise = (advances != null);
+		final int[] pages = coveredPages(ranges, spans);
+		out.putInt(pages.length); // Page Directory
+		for (final int page : pages) {
+			out.putInt(page);
+		}
+		final short[] buf = new short[256];
+		int current = -1;
+		int offset = 0;
+		int span = 0;
+		for (final List<Integer> r : ranges) {
+			final int lower = r.get(0).intValue();
+			final int upper = r.get(1).intValue();
+			for (int codePoint = lower; codePoint <= upper; codePoint++, offset++) {
+				while ((span < spans.size()) && (spans.get(span)[1] < codePoint)) {
+					span++;
+				}
+				if ((span < spans.size()) && (spans.get(span)[0] <= codePoint)) {
+					continue;
+				}
+				if ((codePoint >>> 8) != current) {
+					if (current >= 0) {
+						writePage(out, buf, precise);
+					}
+					Arrays.fill(buf, (precise ? Short.MIN_VALUE : -1));
+					current = codePoint >>> 8;
+				}
+				buf[codePoint & 0xFF] = (precise ? advances[offset] : widths[offset]);
+			}
+		}
+		if (current >= 0) {
+			writePage(out, buf, precise);
+		}
+		out.putInt(spans.size()); // Spans
+		for (final int[] s : spans) {
+			out.putInt(s[0]);
+			out.putInt(s[1]);
+			out.putInt(s[2]);
+		}
+		if (kerning.length > 0) {
+			out.putInt(kerning.length / 3); // Kerning Pairs
+			for (final int k : kerning) {
+				out.putInt(k);
+			}
+		}
+	}
+
+	/**
+	 * Pages (codePoint / 256) with any codePoint of ranges not in spans, in order
+	 */
+	private static final int[] coveredPages(final List<List<Integer>> ranges, final List<int[]> spans) {
+		final List<Integer> pages = new ArrayList<Integer>();
+		int current = -1;
+		int span = 0;
+		for (final List<Integer> r : ranges) {
+			final int lower = r.get(0).intValue();
+			final int upper = r.get(1).intValue();
+			for (int codePoint = lower; codePoint <= upper; codePoint++) {
+				while ((span < spans.size()) && (spans.get(span)[1] < codePoint)) {
+					span++;
+				}
+				if ((span < spans.size()) && (spans.get(span)[0] <= codePoint)) {
+					continue;
+				}
+				if ((codePoint >>> 8) != current) {
+					current = codePoint >>> 8;
+					pages.add(Integer.valueOf(current));
+				}
+			}
+		}
+		final int[] result = new int[pages.size()];
+		for (int i = 0; i < result.length; i++) {
+			result[i] = pages.get(i).intValue();
+		}
+		return result;
+	}
+
+	private static final void writePage(final TableWriter out, final short[] page, final boolean precise)
+			throws IOException {
+		for (final short value : page) {
+			if (precise) {
+				out.putShort(value);
+			} else {
+				out.put((byte) value);
+			}
+		}
+	}
+
+	/**
+	 * Table output through a fixed-size direct buffer (memory use does not depend on table size),
+	 * with running CRC32 of everything written
+	 */
+	static final class TableWriter {
+		private static final int BUFFER_SIZE = 64 * 1024;
+		private final WritableByteChannel out; // null: only CRC
+		private final ByteBuffer buf = ByteBuffer.allocateDirect(BUFFER_SIZE);
+		private final CRC32 crc = new CRC32();
+		private long size;
+
+		TableWriter(final WritableByteChannel out) {
+			this.out = out;
+		}
+
+		TableWriter put(final byte value) throws IOException {
+			ensure(1);
+			buf.put(value);
+			return this;
+		}
+
+		TableWriter put(final byte[] values) throws IOException {
+			return put(values, 0, values.length);
+		}
+
+		TableWriter put(final byte[] values, final int off, final int len) throws IOException {
+			for (int i = off, end = off + len; i < end;) {
+				ensure(1);
+				final int n = Math.min(buf.remaining(), end - i);
+				buf.put(values, i, n);
+				i += n;
+			}
+			return this;
+		}
+
+		TableWriter putShort(final int value) throws IOException {
+			ensure(2);
+			buf.putShort((short) value);
+			return this;
+		}
+
+		TableWriter putInt(final int value) throws IOException {
+			ensure(4);
+			buf.putInt(value);
+			return this;
+		}
+
+		private final void ensure(final int count) throws IOException {
+			if (buf.remaining() < count) {
+				flush();
+			}
+		}
+
+		void flush() throws IOException {
+			buf.flip();
+			size += buf.remaining();
+			crc.update(buf.duplicate());
+			if (out != null) {
+				while (buf.hasRemaining()) {
+					out.write(buf);
+				}
+			}
+			buf.clear();
+		}
+
+		/**
+		 * @return bytes written (including buffered)
+		 */
+		long getSize() {
+			return size + buf.position();
+		}
+
+		/**
+		 * @return CRC32 of flushed bytes
+		 */
+		int getCrc() {
+			return (int) crc.getValue();
+		}
+	}
+
+	/**
+	 * Open table file for writing, GZIP compressed if name ends with {@link #GZIP_SUFFIX}
+	 */
+	static final WritableByteChannel openTableFile(final String file) throws IOException {
+		final FileChannel chan = FileChannel.open(new File(file).toPath(), StandardOpenOption.CREATE,
+				StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+		if (!file.endsWith(GZIP_SUFFIX)) {
+			return chan;
+		}
+		final GZIPOutputStream gz = new GZIPOutputStream(Channels.newOutputStream(chan), TableWriter.BUFFER_SIZE);
+		return Channels.newChannel(gz);
+	}
+
+	private static final void closeSilent(final Closeable c) {
+		try {
+			c.close();
+		} catch (Exception ign) {
+		}
+	}
+
+	/**
+	 * Simple test
+	 * 
+	 * @param args ignored
+	 * @throws Throwable if error
+	 */
+	public static void main(String[] args) throws Throwable {
+		long begin;
+		//
+		begin = System.currentTimeMillis();
+		final String TEST_FILE = new File("/tmp/", TEST_FILE_NAME).getAbsolutePath();
+		System.out.println("TestFile=" + TEST_FILE);
+		final SystemFontMetrics sys = SystemFontMetrics.getDefaultInstance();
+		sys.exportFile(loadRanges("short"), TEST_FILE);
+		final IndexedFontMetrics idx = IndexedFontMetrics.importFile(TEST_FILE);
+		System.out.println("Export/Import Time=" + (System.currentTimeMillis() - begin));
+
+		System.out.println("<LF> ==> " + sys.widthOf('\n') + " => " + idx.widthOf('\n'));
+		System.out.println("<SPACE> ==> " + sys.widthOf(' ') + " => " + idx.widthOf(' '));
+		System.out.println("A ==> " + sys.widthOf('A') + " => " + idx.widthOf('A'));
+		System.out.println("<~> ==> " + sys.widthOf('~') + " => " + idx.widthOf('~'));
+		System.out.println("<127> ==> " + sys.widthOf(127) + " => " + idx.widthOf(127));
+		System.out.println("<128> ==> " + sys.widthOf(128) + " => " + idx.widthOf(128));
+		System.out.println("<NB> ==> " + sys.widthOf(160) + " => " + idx.widthOf(160));
+		System.out.println("<SHY> ==> " + sys.widthOf(0xAD) + " => " + idx.widthOf(0xAD));
+		System.out.println("<255> ==> " + sys.widthOf(255) + " => " + idx.widthOf(255));
+		System.out.println("<7680> ==> " + sys.widthOf(7680) + " => " + idx.widthOf(7680));
+		System.out.println("<7821> ==> " + sys.widthOf(7821) + " => " + idx.widthOf(7821));
+		System.out.println("<7935> ==> " + sys.widthOf(7935) + " => " + idx.widthOf(7935));
+
+		final String hello = "Hello World!";
+		System.out.println(hello + " ==> " + sys.widthOf(hello) + " => " + idx.widthOf(hello));
+
+		// Benchmarks: see benchmarks/ (JMH)
 	}
 }
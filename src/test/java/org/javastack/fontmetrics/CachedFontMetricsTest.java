@@ -0,0 +1,133 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package org.javastack.fontmetrics;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.javastack.fontmetrics.SimpleFontMetrics.CachedFontMetrics;
+import org.javastack.fontmetrics.SimpleFontMetrics.FontMetricsHelper;
+import org.junit.Test;
+
+/**
+ * Hits, misses and weighted LRU eviction of {@link CachedFontMetrics}
+ */
+public class CachedFontMetricsTest {
+	private static final int STRIPES = 16;
+
+	/**
+	 * Width is 10 per char, string measurements are counted
+	 */
+	private static final class CountingFontMetrics implements FontMetricsHelper {
+		int calls = 0;
+
+		@Override
+		public int widthOf(final String input) {
+			calls++;
+			return input.length() * 10;
+		}
+
+		@Override
+		public byte widthOf(final int codePoint) {
+			return 10;
+		}
+	}
+
+	/**
+	 * Strings of given length in the same lock stripe (each stripe has its own LRU order)
+	 */
+	private static final List<String> sameStripe(final int count, final int length) {
+		final List<String> keys = new ArrayList<String>();
+		final StringBuilder sb = new StringBuilder();
+		for (int i = 0; keys.size() < count; i++) {
+			sb.setLength(0);
+			sb.append(i);
+			while (sb.length() < length) {
+				sb.insert(0, 'k');
+			}
+			final String key = sb.toString();
+			if (keys.isEmpty()
+					|| (CachedFontMetrics.stripeIndexOf(key) == CachedFontMetrics.stripeIndexOf(keys.get(0)))) {
+				keys.add(key);
+			}
+		}
+		return keys;
+	}
+
+	@Test
+	public void testHitsAndMisses() {
+		final CountingFontMetrics counting = new CountingFontMetrics();
+		final CachedFontMetrics cache = new CachedFontMetrics(counting, 1024);
+		assertEquals(50, cache.widthOf("hello"));
+		assertEquals(50, cache.widthOf("hello"));
+		assertEquals(50, cache.widthOf((CharSequence) "hello"));
+		assertEquals(1, counting.calls);
+		assertEquals(2, cache.getHits());
+		assertEquals(1, cache.getMisses());
+		assertEquals(0, cache.getEvictions());
+		assertEquals(1, cache.size());
+		// Only strings are cached
+		assertEquals(50, cache.widthOf(new StringBuilder("hello")));
+		assertEquals(2, counting.calls);
+		cache.clear();
+		assertEquals(0, cache.size());
+		assertEquals(50, cache.widthOf("hello"));
+		assertEquals(3, counting.calls);
+	}
+
+	@Test
+	public void testWeightedLruEviction() {
+		final CountingFontMetrics counting = new CountingFontMetrics();
+		// 10 chars per stripe: two strings of 4 chars fit, a third evicts the least recently used
+		final CachedFontMetrics cache = new CachedFontMetrics(counting, STRIPES * 10);
+		final List<String> keys = sameStripe(3, 4);
+		final String a = keys.get(0);
+		final String b = keys.get(1);
+		final String c = keys.get(2);
+		cache.widthOf(a);
+		cache.widthOf(b);
+		cache.widthOf(a); // a is now most recently used
+		assertEquals(0, cache.getEvictions());
+		cache.widthOf(c);
+		assertEquals(1, cache.getEvictions());
+		assertEquals(2, cache.size());
+		final int calls = counting.calls;
+		cache.widthOf(a);
+		cache.widthOf(c);
+		assertEquals(calls, counting.calls);
+		cache.widthOf(b);
+		assertEquals(calls + 1, counting.calls);
+		assertEquals(4, cache.getMisses());
+	}
+
+	@Test
+	public void testHeavierThanStripeNotCached() {
+		final CountingFontMetrics counting = new CountingFontMetrics();
+		final CachedFontMetrics cache = new CachedFontMetrics(counting, STRIPES * 10);
+		final String big = "abcdefghijk"; // 11 chars
+		assertEquals(110, cache.widthOf(big));
+		assertEquals(110, cache.widthOf(big));
+		assertEquals(2, counting.calls);
+		assertEquals(0, cache.size());
+		assertEquals(0, cache.getEvictions());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testTooSmall() {
+		new CachedFontMetrics(new CountingFontMetrics(), STRIPES - 1);
+	}
+}
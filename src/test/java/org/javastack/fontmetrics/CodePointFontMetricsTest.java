@@ -0,0 +1,238 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package org.javastack.fontmetrics;
+
+import static org.junit.Assert.assertEquals;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.javastack.fontmetrics.SimpleFontMetrics.CodePointFontMetrics;
+import org.junit.Test;
+
+/**
+ * Decoding of UTF-16 (lone surrogates) and UTF-8 (malformed input) by every text loop
+ */
+public class CodePointFontMetricsTest {
+	private static final int REPLACEMENT_CHAR = 0xFFFD;
+	private static final int REPLACEMENT_WIDTH = 100;
+
+	private static final CodePointFontMetrics METRICS = new CodePointFontMetrics() {
+		{
+			fillLatin1();
+		}
+
+		@Override
+		public byte widthOf(final int codePoint) {
+			return (byte) widthFor(codePoint);
+		}
+	};
+
+	/**
+	 * Distinct widths, U+FFFD stands out
+	 */
+	private static final int widthFor(final int codePoint) {
+		return ((codePoint == REPLACEMENT_CHAR) ? REPLACEMENT_WIDTH : ((codePoint * 31) % 90) + 1);
+	}
+
+	private static final int widthOfCodePoints(final int... codePoints) {
+		int width = 0;
+		for (final int codePoint : codePoints) {
+			width += widthFor(codePoint);
+		}
+		return width;
+	}
+
+	/**
+	 * Expected width of UTF-16 text: lone surrogates measured as U+FFFD
+	 */
+	private static final int expectedWidthOf(final String text) {
+		int width = 0;
+		for (int i = 0; i < text.length();) {
+			final int codePoint = text.codePointAt(i);
+			width += widthFor((codePoint <= 0xFFFF) && Character.isSurrogate((char) codePoint) //
+					? REPLACEMENT_CHAR //
+					: codePoint);
+			i += Character.charCount(codePoint);
+		}
+		return width;
+	}
+
+	private static final int widthOfUtf8(final byte[] utf8) {
+		final int width = METRICS.widthOf(utf8, 0, utf8.length);
+		final ByteBuffer direct = ByteBuffer.allocateDirect(utf8.length);
+		direct.put(utf8).flip();
+		assertEquals("direct", width, METRICS.widthOf(direct));
+		assertEquals("position", 0, direct.position());
+		assertEquals("heap", width, METRICS.widthOf(ByteBuffer.wrap(utf8)));
+		final byte[] padded = new byte[utf8.length + 2];
+		System.arraycopy(utf8, 0, padded, 1, utf8.length);
+		padded[utf8.length + 1] = (byte) 0x80; // Beyond len, must not be read as a trail byte
+		assertEquals("offset", width, METRICS.widthOf(padded, 1, utf8.length));
+		return width;
+	}
+
+	private static final byte[] bytes(final int... values) {
+		final byte[] b = new byte[values.length];
+		for (int i = 0; i < values.length; i++) {
+			b[i] = (byte) values[i];
+		}
+		return b;
+	}
+
+	@Test
+	public void testLoneSurrogates() {
+		final String[] texts = {
+				"A😀B", // Pair
+				"A\uD83D", // High at end
+				"\uD83DA", // High before BMP
+				"\uDE00A", // Low first
+				"\uDE00\uD83D", // Reversed pair
+				"\uD83D😀", // High before pair
+				"café € 中文", // No surrogates
+		};
+		for (final String text : texts) {
+			final int expected = expectedWidthOf(text);
+			assertEquals(text, expected, METRICS.widthOf(text));
+			assertEquals(text, expected, METRICS.widthOf(new StringBuilder(text)));
+			assertEquals(text, expected, METRICS.widthOf(text.toCharArray(), 0, text.length()));
+			assertEquals(text, expected, METRICS.widthOf("x" + text + "\uD83D", 1, text.length() + 1));
+			assertEquals(text, expected, METRICS.widthOf(("x" + text).toCharArray(), 1, text.length()));
+		}
+	}
+
+	@Test
+	public void testSubsequenceSplittingPair() {
+		final String text = "A😀";
+		// End between high and low surrogate: high is unpaired
+		assertEquals(widthOfCodePoints('A', REPLACEMENT_CHAR), METRICS.widthOf(text, 0, 2));
+		assertEquals(widthOfCodePoints('A', REPLACEMENT_CHAR), METRICS.widthOf(text.toCharArray(), 0, 2));
+		// Start at low surrogate
+		assertEquals(widthOfCodePoints(REPLACEMENT_CHAR), METRICS.widthOf(text, 2, 3));
+	}
+
+	@Test(expected = IndexOutOfBoundsException.class)
+	public void testCharsOutOfBounds() {
+		METRICS.widthOf(new char[4], 2, 3);
+	}
+
+	@Test(expected = IndexOutOfBoundsException.class)
+	public void testSubsequenceOutOfBounds() {
+		METRICS.widthOf("abc", 2, 1);
+	}
+
+	@Test
+	public void testValidUtf8() {
+		final String text = "Hello, café € 中文 😀!";
+		assertEquals(expectedWidthOf(text), widthOfUtf8(text.getBytes(StandardCharsets.UTF_8)));
+	}
+
+	@Test
+	public void testMalformedUtf8() {
+		final int r = REPLACEMENT_CHAR;
+		// Each maximal subpart of an ill-formed sequence is one U+FFFD
+		assertEquals(widthOfCodePoints(r), widthOfUtf8(bytes(0xC3)));
+		assertEquals(widthOfCodePoints(r, 'A'), widthOfUtf8(bytes(0xC3, 'A')));
+		assertEquals(widthOfCodePoints(r), widthOfUtf8(bytes(0xE2, 0x82)));
+		assertEquals(widthOfCodePoints(r, 'A'), widthOfUtf8(bytes(0xE2, 0x82, 'A')));
+		assertEquals(widthOfCodePoints(r), widthOfUtf8(bytes(0xF0, 0x9F, 0x98)));
+		assertEquals(widthOfCodePoints(r, r), widthOfUtf8(bytes(0x80, 0xBF)));
+		// Overlong forms
+		assertEquals(widthOfCodePoints(r, r), widthOfUtf8(bytes(0xC0, 0x80)));
+		assertEquals(widthOfCodePoints(r, r, r), widthOfUtf8(bytes(0xE0, 0x80, 0x80)));
+		assertEquals(widthOfCodePoints(r, r, r, r), widthOfUtf8(bytes(0xF0, 0x80, 0x80, 0x80)));
+		// Surrogates
+		assertEquals(widthOfCodePoints(r, r, r), widthOfUtf8(bytes(0xED, 0xA0, 0x80)));
+		// Above U+10FFFF
+		assertEquals(widthOfCodePoints(r, r, r, r), widthOfUtf8(bytes(0xF4, 0x90, 0x80, 0x80)));
+		assertEquals(widthOfCodePoints(r, r, r, r), widthOfUtf8(bytes(0xF5, 0x80, 0x80, 0x80)));
+		// Highest valid
+		assertEquals(widthOfCodePoints(Character.MAX_CODE_POINT), widthOfUtf8(bytes(0xF4, 0x8F, 0xBF, 0xBF)));
+	}
+
+	/**
+	 * Reference decoder from Table 3-7 (well-formed UTF-8 byte sequences) of the Unicode Standard:
+	 * byte ranges of each position by lead byte; each maximal subpart of an ill-formed sequence is
+	 * one U+FFFD (the JDK decoder differs on surrogates, e.g. ED A0)
+	 */
+	private static final int referenceWidthOf(final byte[] utf8) {
+		final int[][] table = new int[256][];
+		for (int lead = 0xC2; lead <= 0xF4; lead++) {
+			table[lead] = ((lead <= 0xDF) ? new int[] {
+					0x80, 0xBF
+			} : (lead == 0xE0) ? new int[] {
+					0xA0, 0xBF, 0x80, 0xBF
+			} : (lead == 0xED) ? new int[] {
+					0x80, 0x9F, 0x80, 0xBF
+			} : (lead <= 0xEF) ? new int[] {
+					0x80, 0xBF, 0x80, 0xBF
+			} : (lead == 0xF0) ? new int[] {
+					0x90, 0xBF, 0x80, 0xBF, 0x80, 0xBF
+			} : (lead == 0xF4) ? new int[] {
+					0x80, 0x8F, 0x80, 0xBF, 0x80, 0xBF
+			} : new int[] {
+					0x80, 0xBF, 0x80, 0xBF, 0x80, 0xBF
+			});
+		}
+		int width = 0;
+		for (int i = 0; i < utf8.length;) {
+			final int lead = utf8[i++] & 0xFF;
+			if (lead < 0x80) {
+				width += widthFor(lead);
+				continue;
+			}
+			final int[] trail = table[lead];
+			if (trail == null) {
+				width += widthFor(REPLACEMENT_CHAR);
+				continue;
+			}
+			int codePoint = lead & (0x7F >>> ((trail.length / 2) + 1));
+			int k = 0;
+			for (; (k < trail.length) && (i < utf8.length); k += 2) {
+				final int b = utf8[i] & 0xFF;
+				if ((b < trail[k]) || (b > trail[k + 1])) {
+					break;
+				}
+				codePoint = (codePoint << 6) | (b & 0x3F);
+				i++;
+			}
+			width += widthFor((k == trail.length) ? codePoint : REPLACEMENT_CHAR);
+		}
+		return width;
+	}
+
+	@Test
+	public void testRandomUtf8MatchesReference() {
+		final Random random = new Random(42);
+		final int[] pool = {
+				'A', 'z', ' ', 0x7F, 0x80, 0x8F, 0x90, 0x9F, 0xA0, 0xBF, 0xC0, 0xC1, 0xC2, 0xDF, 0xE0, 0xE1,
+				0xED, 0xEE, 0xEF, 0xF0, 0xF3, 0xF4, 0xF5, 0xFF
+		};
+		for (int n = 0; n < 100000; n++) {
+			final byte[] utf8 = new byte[random.nextInt(12)];
+			for (int i = 0; i < utf8.length; i++) {
+				utf8[i] = (byte) (random.nextBoolean() //
+						? pool[random.nextInt(pool.length)] //
+						: random.nextInt(256));
+			}
+			assertEquals(Arrays.toString(utf8), referenceWidthOf(utf8), widthOfUtf8(utf8));
+		}
+		// Valid text agrees with the JDK encoder
+		final String text = "Hello, café € 中文 😀!";
+		assertEquals(expectedWidthOf(text), referenceWidthOf(text.getBytes(StandardCharsets.UTF_8)));
+	}
+}
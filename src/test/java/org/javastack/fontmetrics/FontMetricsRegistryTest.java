@@ -0,0 +1,115 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package org.javastack.fontmetrics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import org.javastack.fontmetrics.SimpleFontMetrics.FontMetricsHelper;
+import org.javastack.fontmetrics.SimpleFontMetrics.IndexedFontMetrics;
+import org.javastack.fontmetrics.SimpleFontMetrics.IndexedFontMetrics.Lookup;
+import org.junit.Test;
+
+/**
+ * Registration, classpath lookup and unloading of tables
+ */
+public class FontMetricsRegistryTest {
+	private static final int BOLD_ITALIC = FontMetricsRegistry.BOLD | FontMetricsRegistry.ITALIC;
+
+	/**
+	 * Width of codePoint in src/test/resources/fontmetrics/synthetic-italic-14.bin
+	 */
+	private static final int syntheticWidthOf(final int codePoint) {
+		if ((codePoint >= 0x20) && (codePoint <= 0x7E)) {
+			return 4 + (codePoint % 5);
+		}
+		return 14; // CJK span, or missing (one em)
+	}
+
+	@Test
+	public void testDefaultTable() throws IOException {
+		final FontMetricsRegistry registry = new FontMetricsRegistry(Lookup.PAGED);
+		final int size = SimpleFontMetrics.FONT_SIZE;
+		assertSame(IndexedFontMetrics.getDefaultInstance(), //
+				registry.get(SimpleFontMetrics.FONT_NAME, FontMetricsRegistry.PLAIN, size));
+		assertSame(IndexedFontMetrics.getDefaultInstance(), //
+				registry.get("verdana", FontMetricsRegistry.PLAIN, size));
+	}
+
+	@Test
+	public void testClasspathTable() throws IOException {
+		final FontMetricsRegistry registry = new FontMetricsRegistry(Lookup.PALETTE);
+		final FontMetricsHelper metrics = registry.get("Synthetic", FontMetricsRegistry.ITALIC, 14);
+		assertSame(metrics, registry.get("synthetic", FontMetricsRegistry.ITALIC, 14));
+		for (int codePoint = 32; codePoint <= 0xFFFF; codePoint++) {
+			assertEquals(syntheticWidthOf(codePoint), metrics.widthOf(codePoint));
+		}
+		final IndexedFontMetrics table = (IndexedFontMetrics) metrics;
+		assertEquals("Synthetic", table.getFontName());
+		assertEquals(FontMetricsRegistry.ITALIC, table.getFontStyle());
+		assertEquals(14, table.getFontSize());
+	}
+
+	@Test(expected = FileNotFoundException.class)
+	public void testTableNotFound() throws IOException {
+		new FontMetricsRegistry(Lookup.PAGED).get("Synthetic", FontMetricsRegistry.BOLD, 14);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testInvalidStyle() throws IOException {
+		new FontMetricsRegistry(Lookup.PAGED).get("Synthetic", 4, 14);
+	}
+
+	@Test
+	public void testRegisterAndUnload() throws IOException {
+		final ByteBuffer table = IndexedFontMetricsTest.syntheticV2(new int[0], 20);
+		final File file = File.createTempFile("fontmetrics-", ".bin");
+		try {
+			final FileOutputStream out = new FileOutputStream(file);
+			try {
+				out.write(table.array(), table.arrayOffset() + table.position(), table.remaining());
+			} finally {
+				out.close();
+			}
+			final FontMetricsRegistry registry = new FontMetricsRegistry(Lookup.BINARY_SEARCH);
+			registry.register("Test Sans", BOLD_ITALIC, 20, file);
+			assertFalse(registry.unload("Test Sans", BOLD_ITALIC, 20));
+			final FontMetricsHelper metrics = registry.get("Test Sans", BOLD_ITALIC, 20);
+			assertEquals(IndexedFontMetricsTest.widthFor('A'), metrics.widthOf('A'));
+			assertEquals(20, metrics.widthOf(0x0600));
+			assertSame(metrics, registry.get("TestSans", BOLD_ITALIC, 20));
+			// Loaded again after unload
+			assertTrue(registry.unload("Test Sans", BOLD_ITALIC, 20));
+			final FontMetricsHelper reloaded = registry.get("Test Sans", BOLD_ITALIC, 20);
+			assertNotSame(metrics, reloaded);
+			assertEquals(metrics.widthOf("Hello World!"), reloaded.widthOf("Hello World!"));
+			registry.unloadAll();
+			assertFalse(registry.unload("Test Sans", BOLD_ITALIC, 20));
+			// Not registered, never loaded
+			assertFalse(registry.unload("Other", FontMetricsRegistry.PLAIN, 20));
+		} finally {
+			file.delete();
+		}
+	}
+}
@@ -0,0 +1,510 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package org.javastack.fontmetrics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLConnection;
+import java.net.URLStreamHandler;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+import org.javastack.fontmetrics.SimpleFontMetrics.FontMetricsHelper;
+import org.javastack.fontmetrics.SimpleFontMetrics.IndexedFontMetrics;
+import org.javastack.fontmetrics.SimpleFontMetrics.IndexedFontMetrics.Lookup;
+import org.javastack.fontmetrics.SimpleFontMetrics.SystemFontMetrics;
+import org.junit.Assume;
+import org.junit.Test;
+
+/**
+ * Round trip of v1 and v2 tables through every {@link Lookup}, checked over all codePoints
+ */
+public class IndexedFontMetricsTest {
+	private static final int LAST_CODEPOINT = Character.MAX_CODE_POINT + 16;
+
+	/**
+	 * Synthetic ranges: pages of 10, 40 and 100 distinct widths (4, 6 and 8-bit palette), a partial
+	 * page, and uniform runs stored as spans (page aligned and not)
+	 */
+	static final List<List<Integer>> RANGES = Arrays.asList( //
+			range(0x0000, 0x00FF), //
+			range(0x0100, 0x01FF), //
+			range(0x0370, 0x03FF), //
+			range(0x0400, 0x04FF), //
+			range(0x3400, 0x4DBF), //
+			range(0x4E00, 0x9FFF), //
+			range(0xAC10, 0xD7A3), //
+			range(0xFFF0, 0xFFFF), //
+			range(0x1F600, 0x1F64F));
+
+	static final List<Integer> range(final int lower, final int upper) {
+		return Arrays.asList(Integer.valueOf(lower), Integer.valueOf(upper));
+	}
+
+	/**
+	 * Width of codePoint in synthetic table
+	 */
+	static final int widthFor(final int codePoint) {
+		if (codePoint < 32) {
+			return 0;
+		} else if (codePoint <= 0x00FF) {
+			return 20 + (codePoint % 10);
+		} else if (codePoint <= 0x01FF) {
+			return 20 + (codePoint % 40);
+		} else if (codePoint <= 0x04FF) {
+			return (codePoint % 100);
+		} else if (codePoint <= 0x4DBF) {
+			return 99;
+		} else if (codePoint <= 0x9FFF) {
+			return 100;
+		} else if (codePoint <= 0xD7A3) {
+			return 98;
+		} else if (codePoint <= 0xFFFF) {
+			return 77;
+		}
+		return 120;
+	}
+
+	static final byte[] syntheticWidths() {
+		final List<Byte> widths = new ArrayList<Byte>();
+		for (final List<Integer> r : RANGES) {
+			for (int codePoint = r.get(0).intValue(); codePoint <= r.get(1).intValue(); codePoint++) {
+				widths.add(Byte.valueOf((byte) widthFor(codePoint)));
+			}
+		}
+		final byte[] result = new byte[widths.size()];
+		for (int i = 0; i < result.length; i++) {
+			result[i] = widths.get(i).byteValue();
+		}
+		return result;
+	}
+
+	static final ByteBuffer syntheticV2(final int[] kerning, final int fontSize) throws IOException {
+		return SimpleFontMetrics.toByteBufferV2(RANGES, syntheticWidths(), kerning, "Synthetic", 1, fontSize);
+	}
+
+	/**
+	 * Expected widths of default (v1) table, parsed independently of IndexedFontMetrics
+	 */
+	private static final int[] expectedDefaultWidths() {
+		final ByteBuffer bb = ByteBuffer.wrap(FontMetricsTable.toByteArray());
+		final int[] ranges = new int[bb.getInt() * 2];
+		for (int i = 0; i < ranges.length; i++) {
+			ranges[i] = bb.getInt();
+		}
+		bb.getInt(); // Number of Widths
+		final int[] expected = new int[LAST_CODEPOINT + 1];
+		Arrays.fill(expected, SimpleFontMetrics.FONT_SIZE);
+		for (int i = 0; i < ranges.length; i += 2) {
+			for (int codePoint = ranges[i]; codePoint <= ranges[i + 1]; codePoint++) {
+				expected[codePoint] = bb.get();
+			}
+		}
+		Arrays.fill(expected, 0, 32, 0);
+		return expected;
+	}
+
+	/**
+	 * Expected widths of synthetic table: missing codePoints are one em
+	 */
+	private static final int[] expectedSyntheticWidths(final int fontSize) {
+		final int[] expected = new int[LAST_CODEPOINT + 1];
+		Arrays.fill(expected, fontSize);
+		for (final List<Integer> r : RANGES) {
+			for (int codePoint = r.get(0).intValue(); codePoint <= r.get(1).intValue(); codePoint++) {
+				expected[codePoint] = widthFor(codePoint);
+			}
+		}
+		Arrays.fill(expected, 0, 32, 0);
+		return expected;
+	}
+
+	private static final void assertAllWidths(final String message, final int[] expected,
+			final IndexedFontMetrics metrics) {
+		for (int codePoint = 0; codePoint <= LAST_CODEPOINT; codePoint++) {
+			if (expected[codePoint] != metrics.widthOf(codePoint)) {
+				fail(message + ": U+" + Integer.toHexString(codePoint) + " expected=" + expected[codePoint]
+						+ " actual=" + metrics.widthOf(codePoint));
+			}
+		}
+	}
+
+	private static final File writeTempFile(final ByteBuffer table, final String suffix) throws IOException {
+		final File file = File.createTempFile("fontmetrics-", suffix);
+		final FileOutputStream out = new FileOutputStream(file);
+		try {
+			out.write(table.array(), table.arrayOffset() + table.position(), table.remaining());
+		} finally {
+			out.close();
+		}
+		return file;
+	}
+
+	/**
+	 * URL of a stream with given content length (a hint, may be -1 or wrong) and reads of at most
+	 * maxRead bytes
+	 */
+	private static final URL streamUrl(final byte[] content, final int contentLength, final int maxRead)
+			throws MalformedURLException {
+		final URLStreamHandler handler = new URLStreamHandler() {
+			@Override
+			protected URLConnection openConnection(final URL url) {
+				return new URLConnection(url) {
+					@Override
+					public void connect() {
+					}
+
+					@Override
+					public int getContentLength() {
+						return contentLength;
+					}
+
+					@Override
+					public InputStream getInputStream() {
+						return new ByteArrayInputStream(content) {
+							@Override
+							public synchronized int read(final byte[] b, final int off, final int len) {
+								return super.read(b, off, Math.min(len, maxRead));
+							}
+						};
+					}
+				};
+			}
+		};
+		return new URL(null, "test:fontmetrics.bin", handler);
+	}
+
+	/**
+	 * Width is 7, calls are counted
+	 */
+	private static final class CountingFontMetrics implements FontMetricsHelper {
+		int calls = 0;
+
+		@Override
+		public int widthOf(final String input) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public byte widthOf(final int codePoint) {
+			calls++;
+			return 7;
+		}
+	}
+
+	@Test
+	public void testWithFallback() throws IOException {
+		for (final Lookup lookup : Lookup.values()) {
+			final IndexedFontMetrics table = IndexedFontMetrics.wrap(syntheticV2(new int[0], 110), lookup);
+			final CountingFontMetrics counting = new CountingFontMetrics();
+			final IndexedFontMetrics hybrid = table.withFallback(counting);
+			final int calls = counting.calls; // Side table fills its Latin-1 fast path on construction
+			assertEquals(widthFor('A'), hybrid.widthOf('A'));
+			assertEquals(widthFor(0x4E00), hybrid.widthOf(0x4E00));
+			assertEquals(0, hybrid.widthOf('\n'));
+			assertEquals(calls, counting.calls);
+			// Misses go to fallback once, then to side table
+			assertEquals(7, hybrid.widthOf(0x0600));
+			assertEquals(7, hybrid.widthOf(0x0600));
+			assertEquals(calls + 1, counting.calls);
+			assertEquals(widthFor('A') + 7 + 7, hybrid.widthOf("A\u0600\u0600"));
+			assertEquals(7, hybrid.widthOf(Character.MAX_CODE_POINT));
+			assertEquals(calls + 2, counting.calls);
+			// Table is shared, not changed
+			assertEquals(110, table.widthOf(0x0600));
+			assertEquals(table.getFontName(), hybrid.getFontName());
+			assertEquals(table.getFontSize(), hybrid.getFontSize());
+		}
+	}
+
+	@Test
+	public void testMapFile() throws IOException {
+		final File file = writeTempFile(syntheticV2(new int[0], 110), ".bin");
+		try {
+			final IndexedFontMetrics metrics = IndexedFontMetrics.mapFile(file);
+			assertAllWidths("mapped", expectedSyntheticWidths(110), metrics);
+			assertEquals("Synthetic", metrics.getFontName());
+		} finally {
+			file.delete();
+		}
+	}
+
+	@Test(expected = IOException.class)
+	public void testMapCompressedFile() throws IOException {
+		final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		final GZIPOutputStream gz = new GZIPOutputStream(bytes);
+		final ByteBuffer table = syntheticV2(new int[0], 110);
+		gz.write(table.array(), table.arrayOffset() + table.position(), table.remaining());
+		gz.close();
+		final File file = writeTempFile(ByteBuffer.wrap(bytes.toByteArray()), ".bin.gz");
+		try {
+			IndexedFontMetrics.mapFile(file);
+		} finally {
+			file.delete();
+		}
+	}
+
+	@Test
+	public void testExportImportRoundTrip() throws IOException {
+		final SystemFontMetrics sys = SystemFontMetrics.getDefaultInstance();
+		Assume.assumeNotNull(sys);
+		final List<List<Integer>> ranges = Arrays.asList(range(0x20, 0x7E), range(0x400, 0x4FF));
+		final int[] formats = {
+				SimpleFontMetrics.FORMAT_V1, SimpleFontMetrics.FORMAT_V2, SimpleFontMetrics.FORMAT_V2
+		};
+		final String[] suffixes = {
+				".bin", ".bin", ".bin" + SimpleFontMetrics.GZIP_SUFFIX
+		};
+		for (int i = 0; i < formats.length; i++) {
+			final File file = File.createTempFile("fontmetrics-", suffixes[i]);
+			try {
+				sys.exportFile(ranges, file.getAbsolutePath(), formats[i]);
+				final byte[] magic = new byte[2];
+				final FileInputStream in = new FileInputStream(file);
+				try {
+					assertEquals(2, in.read(magic));
+				} finally {
+					in.close();
+				}
+				final boolean gzip = ((magic[0] == (byte) 0x1F) && (magic[1] == (byte) 0x8B));
+				assertEquals(suffixes[i], suffixes[i].endsWith(SimpleFontMetrics.GZIP_SUFFIX), gzip);
+				final IndexedFontMetrics metrics = IndexedFontMetrics.importFile(file);
+				for (final List<Integer> r : ranges) {
+					for (int codePoint = r.get(0); codePoint <= r.get(1); codePoint++) {
+						assertEquals(suffixes[i] + " v" + formats[i] + " U+" + Integer.toHexString(codePoint),
+								sys.widthOf(codePoint), metrics.widthOf(codePoint));
+					}
+				}
+			} finally {
+				file.delete();
+			}
+		}
+	}
+
+	@Test
+	public void testImportStream() throws IOException {
+		final byte[] table = FontMetricsTable.toByteArray();
+		final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		final GZIPOutputStream gz = new GZIPOutputStream(bytes);
+		gz.write(table);
+		gz.close();
+		final int[] expected = expectedDefaultWidths();
+		for (final byte[] content : Arrays.asList(table, bytes.toByteArray())) {
+			final int[] contentLengths = {
+					-1, 0, 10, content.length - 1, content.length, content.length * 2
+			};
+			for (final int contentLength : contentLengths) {
+				for (final int maxRead : new int[] {
+						1, 7, Integer.MAX_VALUE
+				}) {
+					final URL url = streamUrl(content, contentLength, maxRead);
+					assertAllWidths("length=" + contentLength + " read=" + maxRead, expected,
+							IndexedFontMetrics.importFile(url));
+				}
+			}
+		}
+	}
+
+	@Test
+	public void testV1ToV2() throws IOException {
+		final int[] expected = expectedDefaultWidths();
+		final ByteBuffer v1 = ByteBuffer.wrap(FontMetricsTable.toByteArray());
+		final List<List<Integer>> ranges = new ArrayList<List<Integer>>();
+		final int rangeCount = v1.getInt();
+		for (int i = 0; i < rangeCount; i++) {
+			ranges.add(range(v1.getInt(), v1.getInt()));
+		}
+		final byte[] widths = new byte[v1.getInt()];
+		v1.get(widths);
+		final ByteBuffer v2 = SimpleFontMetrics.toByteBufferV2(ranges, widths, new int[0], //
+				SimpleFontMetrics.FONT_NAME, 0, SimpleFontMetrics.FONT_SIZE);
+		for (final Lookup lookup : Lookup.values()) {
+			assertAllWidths("v2 " + lookup, expected, IndexedFontMetrics.wrap(v2, lookup));
+		}
+	}
+
+	@Test
+	public void testV2Header() throws IOException {
+		final ByteBuffer v2 = SimpleFontMetrics.toByteBufferV2(RANGES, syntheticWidths(), new int[0], //
+				"Synthetic ä", 3, 42);
+		final IndexedFontMetrics metrics = IndexedFontMetrics.wrap(v2);
+		assertEquals("Synthetic ä", metrics.getFontName());
+		assertEquals(3, metrics.getFontStyle());
+		assertEquals(42, metrics.getFontSize());
+	}
+
+	@Test
+	public void testV2Checksum() throws IOException {
+		final ByteBuffer v2 = syntheticV2(new int[0], 110);
+		for (final int offset : new int[] {
+				v2.limit() / 2, v2.limit() - 1
+		}) {
+			final ByteBuffer corrupt = ByteBuffer.wrap(Arrays.copyOf(v2.array(), v2.limit()));
+			corrupt.put(offset, (byte) (corrupt.get(offset) ^ 0x10));
+			try {
+				IndexedFontMetrics.wrap(corrupt);
+				fail("Corrupt table accepted: offset " + offset);
+			} catch (IOException expected) {
+			}
+		}
+	}
+
+	@Test(expected = IOException.class)
+	public void testUnsupportedVersion() throws IOException {
+		final ByteBuffer v2 = syntheticV2(new int[0], 110);
+		v2.putShort(4, (short) 99); // Version
+		IndexedFontMetrics.wrap(v2);
+	}
+
+	@Test
+	public void testV1AllLookups() throws IOException {
+		final int[] expected = expectedDefaultWidths();
+		assertAllWidths("default", expected, IndexedFontMetrics.getDefaultInstance());
+		for (final Lookup lookup : Lookup.values()) {
+			final IndexedFontMetrics metrics = IndexedFontMetrics.fromByteBuffer( //
+					ByteBuffer.wrap(FontMetricsTable.toByteArray()), lookup, false);
+			assertAllWidths("v1 " + lookup, expected, metrics);
+			assertEquals(SimpleFontMetrics.FONT_NAME, metrics.getFontName());
+			assertEquals(SimpleFontMetrics.FONT_SIZE, metrics.getFontSize());
+		}
+	}
+
+	@Test
+	public void testV2AllLookups() throws IOException {
+		final int[] expected = expectedSyntheticWidths(110);
+		final ByteBuffer v2 = syntheticV2(new int[0], 110);
+		for (final Lookup lookup : Lookup.values()) {
+			final IndexedFontMetrics metrics = IndexedFontMetrics.wrap(v2, lookup);
+			assertAllWidths("v2 " + lookup, expected, metrics);
+			assertEquals("Synthetic", metrics.getFontName());
+			assertEquals(1, metrics.getFontStyle());
+			assertFalse(metrics.hasKerning());
+		}
+	}
+
+	@Test
+	public void testV2Spans() throws IOException {
+		// Spans keep the table small: CJK and Hangul are not stored per codePoint
+		final ByteBuffer v2 = syntheticV2(new int[0], 110);
+		assertTrue("size=" + v2.remaining(), v2.remaining() < (8 * 1024));
+		// Only uniform runs (page aligned and not): no pages at all
+		final List<List<Integer>> ranges = Arrays.asList(range(0x2800, 0x28FF), range(0x4E00, 0x9FFF),
+				range(0xAC10, 0xD7A3));
+		final byte[] widths = new byte[0x100 + 0x5200 + 0x2B94];
+		Arrays.fill(widths, 0, 0x100, (byte) 50);
+		Arrays.fill(widths, 0x100, 0x5300, (byte) 100);
+		Arrays.fill(widths, 0x5300, widths.length, (byte) 98);
+		final ByteBuffer spans = SimpleFontMetrics.toByteBufferV2(ranges, widths, new int[0], "Spans", 0, 14);
+		assertTrue("size=" + spans.remaining(), spans.remaining() < 128);
+		final int[] expected = new int[LAST_CODEPOINT + 1];
+		Arrays.fill(expected, 14);
+		Arrays.fill(expected, 0, 32, 0);
+		Arrays.fill(expected, 0x2800, 0x2900, 50);
+		Arrays.fill(expected, 0x4E00, 0xA000, 100);
+		Arrays.fill(expected, 0xAC10, 0xD7A4, 98);
+		for (final Lookup lookup : Lookup.values()) {
+			assertAllWidths("spans " + lookup, expected, IndexedFontMetrics.wrap(spans, lookup));
+		}
+	}
+
+	@Test
+	public void testKerning() throws IOException {
+		final int[] kerning = {
+				'A', 'V', -3, 'T', 'o', -5
+		};
+		for (final Lookup lookup : Lookup.values()) {
+			final IndexedFontMetrics metrics = IndexedFontMetrics.wrap(syntheticV2(kerning, 110), lookup);
+			assertTrue(metrics.hasKerning());
+			final int a = widthFor('A');
+			final int v = widthFor('V');
+			assertEquals((a + v) - 3, metrics.widthOf("AV"));
+			assertEquals(v + a, metrics.widthOf("VA"));
+			assertEquals((a + v + a) - 3, metrics.widthOf("AVA".toCharArray(), 0, 3));
+			assertEquals((widthFor('T') + widthFor('o')) - 5, metrics.widthOf(new StringBuilder("To")));
+			final byte[] utf8 = "\u00E9AV".getBytes(StandardCharsets.UTF_8);
+			assertEquals((widthFor(0xE9) + a + v) - 3, metrics.widthOf(utf8, 0, utf8.length));
+		}
+	}
+
+	@Test
+	public void testWrapDirectBuffer() throws IOException {
+		final ByteBuffer[] tables = {
+				ByteBuffer.wrap(FontMetricsTable.toByteArray()), syntheticV2(new int[0], 110)
+		};
+		final int[][] expected = {
+				expectedDefaultWidths(), expectedSyntheticWidths(110)
+		};
+		for (int i = 0; i < tables.length; i++) {
+			// Table after a prefix: wrap reads from position, which is not changed
+			final ByteBuffer direct = ByteBuffer.allocateDirect(tables[i].remaining() + 3);
+			direct.position(3);
+			direct.put(tables[i].duplicate()).position(3);
+			for (final Lookup lookup : Lookup.values()) {
+				assertAllWidths("direct " + lookup, expected[i], IndexedFontMetrics.wrap(direct, lookup));
+				assertEquals(3, direct.position());
+			}
+		}
+	}
+
+	@Test
+	public void testTruncatedTables() throws IOException {
+		final ByteBuffer[] tables = {
+				ByteBuffer.wrap(FontMetricsTable.toByteArray()), syntheticV2(new int[] {
+						'A', 'V', -3
+				}, 110)
+		};
+		for (final ByteBuffer table : tables) {
+			for (int len = 0; len < table.remaining(); len++) {
+				final ByteBuffer truncated = table.duplicate();
+				truncated.limit(table.position() + len);
+				try {
+					IndexedFontMetrics.wrap(truncated);
+					fail("Truncated table accepted: " + len + " of " + table.remaining() + " bytes");
+				} catch (IOException expected) {
+				}
+				try {
+					IndexedFontMetrics.fromByteBuffer(truncated.slice(), Lookup.PAGED, true);
+					fail("Truncated table accepted: " + len + " of " + table.remaining() + " bytes");
+				} catch (IOException expected) {
+				}
+			}
+		}
+	}
+
+	@Test
+	public void testMissingScaledToFontSize() throws IOException {
+		final IndexedFontMetrics metrics = IndexedFontMetrics.wrap(syntheticV2(new int[0], 14), Lookup.PAGED);
+		assertEquals(14, metrics.getFontSize());
+		assertEquals(14, metrics.widthOf(0x0600));
+		assertEquals(14, metrics.widthOf(Character.MAX_CODE_POINT));
+		assertEquals(widthFor('A'), metrics.widthOf('A'));
+	}
+}
@@ -0,0 +1,115 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package org.javastack.fontmetrics;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import org.javastack.fontmetrics.SimpleFontMetrics.FontMetricsHelper;
+import org.javastack.fontmetrics.SimpleFontMetrics.LazyFontMetrics;
+import org.junit.Test;
+
+/**
+ * Per-codePoint widths of {@link LazyFontMetrics} are asked once and then served from its table
+ */
+public class LazyFontMetricsTest {
+	/**
+	 * Width is codePoint modulo 100, calls are counted per codePoint
+	 */
+	private static final class CountingFontMetrics implements FontMetricsHelper {
+		final AtomicIntegerArray calls = new AtomicIntegerArray(Character.MAX_CODE_POINT + 1);
+
+		@Override
+		public int widthOf(final String input) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public byte widthOf(final int codePoint) {
+			if ((codePoint >= 0) && (codePoint <= Character.MAX_CODE_POINT)) {
+				calls.incrementAndGet(codePoint);
+			}
+			return (byte) Math.abs(codePoint % 100);
+		}
+	}
+
+	@Test
+	public void testAskedOnce() {
+		final CountingFontMetrics counting = new CountingFontMetrics();
+		final LazyFontMetrics lazy = new LazyFontMetrics(counting);
+		// Latin-1 is filled on construction
+		assertEquals(1, counting.calls.get('A'));
+		assertEquals(0, counting.calls.get(0x4E2D));
+		final String text = "A中😀 中😀";
+		final int expected = (('A' % 100) + ((0x4E2D % 100) * 2) + ((0x1F600 % 100) * 2) + (' ' % 100));
+		assertEquals(expected, lazy.widthOf(text));
+		assertEquals(expected, lazy.widthOf(text));
+		assertEquals(expected, lazy.widthOf(text.toCharArray(), 0, text.length()));
+		assertEquals(1, counting.calls.get('A'));
+		assertEquals(1, counting.calls.get(0x4E2D));
+		assertEquals(1, counting.calls.get(0x1F600));
+		assertEquals(0x1F600 % 100, lazy.widthOf(0x1F600));
+		assertEquals(1, counting.calls.get(0x1F600));
+		assertEquals(0, counting.calls.get(0x1F601));
+	}
+
+	@Test
+	public void testAllCodePoints() {
+		final CountingFontMetrics counting = new CountingFontMetrics();
+		final LazyFontMetrics lazy = new LazyFontMetrics(counting);
+		for (int pass = 0; pass < 2; pass++) {
+			for (int codePoint = 0; codePoint <= Character.MAX_CODE_POINT; codePoint++) {
+				assertEquals(codePoint % 100, lazy.widthOf(codePoint));
+			}
+		}
+		for (int codePoint = 0; codePoint <= Character.MAX_CODE_POINT; codePoint++) {
+			assertEquals(1, counting.calls.get(codePoint));
+		}
+		// Outside of Unicode: not cached, always asked
+		assertEquals(1, lazy.widthOf(-1));
+		assertEquals((Character.MAX_CODE_POINT + 1) % 100, lazy.widthOf(Character.MAX_CODE_POINT + 1));
+	}
+
+	@Test
+	public void testConcurrentFill() throws InterruptedException {
+		final CountingFontMetrics counting = new CountingFontMetrics();
+		final LazyFontMetrics lazy = new LazyFontMetrics(counting);
+		final int[] errors = new int[1];
+		final Thread[] threads = new Thread[4];
+		for (int t = 0; t < threads.length; t++) {
+			threads[t] = new Thread() {
+				@Override
+				public void run() {
+					for (int codePoint = 0x4E00; codePoint <= 0x9FFF; codePoint++) {
+						if (lazy.widthOf(codePoint) != (codePoint % 100)) {
+							synchronized (errors) {
+								errors[0]++;
+							}
+						}
+					}
+				}
+			};
+			threads[t].start();
+		}
+		for (final Thread thread : threads) {
+			thread.join();
+		}
+		assertEquals(0, errors[0]);
+		for (int codePoint = 0x4E00; codePoint <= 0x9FFF; codePoint++) {
+			assertEquals(codePoint % 100, lazy.widthOf(codePoint));
+		}
+	}
+}
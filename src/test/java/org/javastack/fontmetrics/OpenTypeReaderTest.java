@@ -0,0 +1,268 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package org.javastack.fontmetrics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.javastack.fontmetrics.SimpleFontMetrics.IndexedFontMetrics;
+import org.javastack.fontmetrics.SimpleFontMetrics.PreciseFontMetrics;
+import org.junit.Test;
+
+/**
+ * cmap (format 4 and 12), hmtx, head and name of a synthetic font built in memory
+ */
+public class OpenTypeReaderTest {
+	private static final int UNITS_PER_EM = 1000;
+	private static final int GLYPHS = 98;
+	private static final int H_METRICS = 97; // Last glyph repeats advance of glyph 96
+	private static final String FAMILY = "Test Sans";
+
+	/**
+	 * Advance of glyph in font units
+	 */
+	private static final int advanceOfGlyph(final int glyph) {
+		return ((glyph == 0) ? 500 : (300 + (glyph * 10)));
+	}
+
+	/**
+	 * Format 4: 0x20-0x7E to glyphs 1-95 (idDelta), 0x4E00-0x4E02 through glyphIdArray to 96, 97 and 0
+	 */
+	private static final byte[] cmapFormat4() {
+		final int[] endCodes = {
+				0x7E, 0x4E02, 0xFFFF
+		};
+		final int[] startCodes = {
+				0x20, 0x4E00, 0xFFFF
+		};
+		final int[] idDeltas = {
+				(1 - 0x20) & 0xFFFF, 0, 1
+		};
+		final int segCount = endCodes.length;
+		final int[] idRangeOffsets = {
+				0, (segCount - 1) * 2, 0 // Segment 1: from its own entry to glyphIdArray[0]
+		};
+		final int[] glyphIds = {
+				96, 97, 0
+		};
+		final ByteBuffer bb = ByteBuffer.allocate(16 + (segCount * 8) + (glyphIds.length * 2));
+		bb.putShort((short) 4).putShort((short) bb.capacity()).putShort((short) 0);
+		bb.putShort((short) (segCount * 2)).putShort((short) 4).putShort((short) 1).putShort((short) 2);
+		putShorts(bb, endCodes);
+		bb.putShort((short) 0); // reservedPad
+		putShorts(bb, startCodes);
+		putShorts(bb, idDeltas);
+		putShorts(bb, idRangeOffsets);
+		putShorts(bb, glyphIds);
+		return bb.array();
+	}
+
+	/**
+	 * Format 12: 0x20-0x7E to glyphs 1-95, U+1F600-U+1F601 to glyphs 96-97
+	 */
+	private static final byte[] cmapFormat12() {
+		final int[][] groups = {
+				{
+						0x20, 0x7E, 1
+				}, {
+						0x1F600, 0x1F601, 96
+				}
+		};
+		final ByteBuffer bb = ByteBuffer.allocate(16 + (groups.length * 12));
+		bb.putShort((short) 12).putShort((short) 0).putInt(bb.capacity()).putInt(0).putInt(groups.length);
+		for (final int[] group : groups) {
+			bb.putInt(group[0]).putInt(group[1]).putInt(group[2]);
+		}
+		return bb.array();
+	}
+
+	private static final void putShorts(final ByteBuffer bb, final int[] values) {
+		for (final int value : values) {
+			bb.putShort((short) value);
+		}
+	}
+
+	/**
+	 * Build font with given cmap subtables (platform 3, encoding 1 for format 4, 10 for format 12)
+	 */
+	private static final ByteBuffer buildFont(final int macStyle, final byte[]... subtables) {
+		final Map<String, byte[]> tables = new LinkedHashMap<String, byte[]>();
+		int cmapSize = 4 + (subtables.length * 8);
+		for (final byte[] subtable : subtables) {
+			cmapSize += subtable.length;
+		}
+		final ByteBuffer cmap = ByteBuffer.allocate(cmapSize);
+		cmap.putShort((short) 0).putShort((short) subtables.length);
+		int offset = 4 + (subtables.length * 8);
+		for (final byte[] subtable : subtables) {
+			final int format = ((subtable[0] << 8) | subtable[1]);
+			cmap.putShort((short) 3).putShort((short) ((format == 12) ? 10 : 1)).putInt(offset);
+			offset += subtable.length;
+		}
+		for (final byte[] subtable : subtables) {
+			cmap.put(subtable);
+		}
+		tables.put("cmap", cmap.array());
+		final ByteBuffer head = ByteBuffer.allocate(54);
+		head.putShort(18, (short) UNITS_PER_EM).putShort(44, (short) macStyle);
+		tables.put("head", head.array());
+		final ByteBuffer hhea = ByteBuffer.allocate(36);
+		hhea.putShort(34, (short) H_METRICS);
+		tables.put("hhea", hhea.array());
+		final ByteBuffer hmtx = ByteBuffer.allocate((H_METRICS * 4) + ((GLYPHS - H_METRICS) * 2));
+		for (int glyph = 0; glyph < H_METRICS; glyph++) {
+			hmtx.putShort((short) advanceOfGlyph(glyph)).putShort((short) 0);
+		}
+		tables.put("hmtx", hmtx.array());
+		final byte[] family = FAMILY.getBytes(StandardCharsets.UTF_16BE);
+		final ByteBuffer name = ByteBuffer.allocate(6 + 12 + family.length);
+		name.putShort((short) 0).putShort((short) 1).putShort((short) 18);
+		name.putShort((short) 3).putShort((short) 1).putShort((short) 0x409).putShort((short) 1);
+		name.putShort((short) family.length).putShort((short) 0).put(family);
+		tables.put("name", name.array());
+		// Offset table and table records
+		int size = 12 + (tables.size() * 16);
+		for (final byte[] table : tables.values()) {
+			size += (table.length + 3) & ~3;
+		}
+		final ByteBuffer font = ByteBuffer.allocate(size);
+		font.putInt(0x00010000).putShort((short) tables.size()).putShort((short) 0).putShort((short) 0)
+				.putShort((short) 0);
+		int tableOffset = 12 + (tables.size() * 16);
+		for (final Map.Entry<String, byte[]> e : tables.entrySet()) {
+			font.put(e.getKey().getBytes(StandardCharsets.ISO_8859_1)).putInt(0).putInt(tableOffset)
+					.putInt(e.getValue().length);
+			tableOffset += (e.getValue().length + 3) & ~3;
+		}
+		for (final byte[] table : tables.values()) {
+			font.put(table);
+			font.position((font.position() + 3) & ~3);
+		}
+		font.clear();
+		return font;
+	}
+
+	@Test
+	public void testCmapFormat4() throws IOException {
+		final OpenTypeReader reader = new OpenTypeReader(buildFont(0, cmapFormat4()), 0);
+		assertEquals(0, reader.glyphOf(0x1F));
+		assertEquals(1, reader.glyphOf(0x20));
+		assertEquals('A' - 0x1F, reader.glyphOf('A'));
+		assertEquals(95, reader.glyphOf(0x7E));
+		assertEquals(0, reader.glyphOf(0x7F));
+		assertEquals(96, reader.glyphOf(0x4E00));
+		assertEquals(97, reader.glyphOf(0x4E01));
+		assertEquals(0, reader.glyphOf(0x4E02)); // glyphIdArray entry 0
+		assertEquals(0, reader.glyphOf(0x4E03));
+		assertEquals(0, reader.glyphOf(0xFFFF));
+		assertEquals(0, reader.glyphOf(0x1F600)); // BMP only
+	}
+
+	@Test
+	public void testCmapFormat12() throws IOException {
+		final OpenTypeReader reader = new OpenTypeReader(buildFont(0, cmapFormat12()), 0);
+		assertEquals(0, reader.glyphOf(0x1F));
+		assertEquals('A' - 0x1F, reader.glyphOf('A'));
+		assertEquals(0, reader.glyphOf(0x7F));
+		assertEquals(96, reader.glyphOf(0x1F600));
+		assertEquals(97, reader.glyphOf(0x1F601));
+		assertEquals(0, reader.glyphOf(0x1F602));
+	}
+
+	@Test
+	public void testFormat12PreferredOverFormat4() throws IOException {
+		final OpenTypeReader reader = new OpenTypeReader(buildFont(0, cmapFormat4(), cmapFormat12()), 0);
+		assertEquals(96, reader.glyphOf(0x1F600));
+		assertEquals(0, reader.glyphOf(0x4E00)); // Not in format 12 subtable
+	}
+
+	@Test
+	public void testHeadNameAndAdvances() throws IOException {
+		final OpenTypeReader reader = new OpenTypeReader(buildFont(3, cmapFormat4()), 0);
+		assertEquals(FAMILY, reader.getFamilyName());
+		assertEquals(3, reader.getStyle());
+		assertEquals(UNITS_PER_EM, reader.getUnitsPerEm());
+		assertEquals(advanceOfGlyph('A' - 0x1F), reader.advanceWidthOf('A'));
+		assertEquals(advanceOfGlyph(0), reader.advanceWidthOf(0x0600)); // .notdef
+		assertEquals(advanceOfGlyph(96), reader.advanceWidthOf(0x4E01)); // Beyond numberOfHMetrics
+		final int advance = advanceOfGlyph('A' - 0x1F);
+		assertEquals(((advance * 14) + (UNITS_PER_EM / 2)) / UNITS_PER_EM, reader.widthOf('A', 14));
+		assertEquals(((advance * 14 * 64) + (UNITS_PER_EM / 2)) / UNITS_PER_EM, reader.advanceOf('A', 14, 6));
+		assertEquals(0, reader.advanceOf('\n', 14, 6));
+	}
+
+	@Test
+	public void testToFontMetrics() throws IOException {
+		final OpenTypeReader reader = new OpenTypeReader(buildFont(0, cmapFormat4()), 0);
+		final List<List<Integer>> ranges = Arrays.asList(Arrays.asList(0x20, 0x7E));
+		final IndexedFontMetrics metrics = reader.toFontMetrics(ranges, 14);
+		assertEquals(FAMILY, metrics.getFontName());
+		assertEquals(14, metrics.getFontSize());
+		for (int codePoint = 0x20; codePoint <= 0x7E; codePoint++) {
+			assertEquals(reader.widthOf(codePoint, 14), metrics.widthOf(codePoint));
+		}
+		assertEquals(14, metrics.widthOf(0x4E00)); // Not in table: one em
+	}
+
+	@Test
+	public void testCompressedExport() throws IOException {
+		final OpenTypeReader reader = new OpenTypeReader(buildFont(0, cmapFormat4()), 0);
+		final List<List<Integer>> ranges = Arrays.asList(Arrays.asList(0x20, 0x7E),
+				Arrays.asList(0x4E00, 0x4E02));
+		final File file = File.createTempFile("fontmetrics-", ".bin" + SimpleFontMetrics.GZIP_SUFFIX);
+		try {
+			reader.exportFile(ranges, file.getAbsolutePath(), 14, SimpleFontMetrics.FORMAT_V2, 0);
+			final IndexedFontMetrics metrics = IndexedFontMetrics.importFile(file);
+			assertEquals(FAMILY, metrics.getFontName());
+			for (final List<Integer> r : ranges) {
+				for (int codePoint = r.get(0); codePoint <= r.get(1); codePoint++) {
+					assertEquals(reader.widthOf(codePoint, 14), metrics.widthOf(codePoint));
+				}
+			}
+			reader.exportFile(ranges, file.getAbsolutePath(), 14, SimpleFontMetrics.FORMAT_V3, 6);
+			final PreciseFontMetrics precise = PreciseFontMetrics.importFile(file);
+			for (final List<Integer> r : ranges) {
+				for (int codePoint = r.get(0); codePoint <= r.get(1); codePoint++) {
+					assertEquals(reader.advanceOf(codePoint, 14, 6), precise.advanceOf(codePoint));
+				}
+			}
+		} finally {
+			file.delete();
+		}
+	}
+
+	@Test
+	public void testTruncatedFont() throws IOException {
+		final ByteBuffer font = buildFont(0, cmapFormat4(), cmapFormat12());
+		for (int len = 0; len < font.capacity(); len++) {
+			final ByteBuffer truncated = font.duplicate();
+			truncated.limit(len);
+			try {
+				new OpenTypeReader(truncated.slice(), 0);
+				fail("Truncated font accepted: " + len + " of " + font.capacity() + " bytes");
+			} catch (IOException expected) {
+			}
+		}
+	}
+}
@@ -0,0 +1,221 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package org.javastack.fontmetrics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+
+import org.javastack.fontmetrics.SimpleFontMetrics.IndexedFontMetrics;
+import org.javastack.fontmetrics.SimpleFontMetrics.PreciseFontMetrics;
+import org.javastack.fontmetrics.SimpleFontMetrics.SystemFontMetrics;
+import org.junit.Assume;
+import org.junit.Test;
+
+/**
+ * Round trip of v3 tables (fixed-point advances, spans and kerning)
+ */
+public class PreciseFontMetricsTest {
+	private static final int FRACTION_BITS = 6;
+
+	/**
+	 * Advance of codePoint: width of synthetic table plus a fraction
+	 */
+	private static final int advanceFor(final int codePoint) {
+		final int width = IndexedFontMetricsTest.widthFor(codePoint);
+		return ((width == 0) ? 0 : ((width << FRACTION_BITS) + (codePoint % 64)));
+	}
+
+	private static final ByteBuffer syntheticV3(final int[] kerning, final int fontSize) throws IOException {
+		final List<List<Integer>> ranges = IndexedFontMetricsTest.RANGES;
+		final short[] advances = new short[IndexedFontMetricsTest.syntheticWidths().length];
+		int offset = 0;
+		for (final List<Integer> r : ranges) {
+			for (int codePoint = r.get(0).intValue(); codePoint <= r.get(1).intValue(); codePoint++) {
+				// Uniform runs stay uniform (stored as spans)
+				advances[offset++] = (short) ((codePoint < 0x3400) ? advanceFor(codePoint) //
+						: (IndexedFontMetricsTest.widthFor(codePoint) << FRACTION_BITS));
+			}
+		}
+		return SimpleFontMetrics.toByteBufferV3(ranges, advances, kerning, FRACTION_BITS, "Synthetic", 0,
+				fontSize);
+	}
+
+	@Test
+	public void testAllAdvances() throws IOException {
+		final PreciseFontMetrics metrics = PreciseFontMetrics.fromByteBuffer(syntheticV3(new int[0], 110));
+		assertEquals(FRACTION_BITS, metrics.getFractionBits());
+		final boolean[] covered = new boolean[Character.MAX_CODE_POINT + 1];
+		for (final List<Integer> r : IndexedFontMetricsTest.RANGES) {
+			for (int codePoint = r.get(0).intValue(); codePoint <= r.get(1).intValue(); codePoint++) {
+				covered[codePoint] = true;
+			}
+		}
+		for (int codePoint = 0; codePoint <= Character.MAX_CODE_POINT; codePoint++) {
+			final int expected = ((codePoint < 32) ? 0 //
+					: !covered[codePoint] ? (110 << FRACTION_BITS) //
+							: (codePoint < 0x3400) ? advanceFor(codePoint) //
+									: (IndexedFontMetricsTest.widthFor(codePoint) << FRACTION_BITS));
+			if (expected != metrics.advanceOf(codePoint)) {
+				fail("U+" + Integer.toHexString(codePoint) + " expected=" + expected + " actual="
+						+ metrics.advanceOf(codePoint));
+			}
+		}
+	}
+
+	@Test
+	public void testWidthRoundedOnce() throws IOException {
+		final PreciseFontMetrics metrics = PreciseFontMetrics.fromByteBuffer(syntheticV3(new int[0], 110));
+		final String text = "Hello World!";
+		long sum = 0;
+		for (int i = 0; i < text.length(); i++) {
+			sum += advanceFor(text.charAt(i));
+		}
+		final int expected = (int) ((sum + (1 << (FRACTION_BITS - 1))) >> FRACTION_BITS);
+		assertEquals(expected, metrics.widthOf(text));
+		assertEquals(expected, metrics.widthOf(text.toCharArray(), 0, text.length()));
+	}
+
+	@Test
+	public void testKerning() throws IOException {
+		final PreciseFontMetrics metrics = PreciseFontMetrics.fromByteBuffer(syntheticV3(new int[] {
+				'A', 'V', -100
+		}, 14));
+		final long sum = (advanceFor('A') + advanceFor('V')) - 100;
+		assertEquals((int) ((sum + 32) >> FRACTION_BITS), metrics.widthOf("AV"));
+		final long reversed = advanceFor('V') + advanceFor('A');
+		assertEquals((int) ((reversed + 32) >> FRACTION_BITS), metrics.widthOf("VA"));
+	}
+
+	@Test
+	public void testMissingScaledToFontSize() throws IOException {
+		final PreciseFontMetrics metrics = PreciseFontMetrics.fromByteBuffer(syntheticV3(new int[0], 14));
+		assertEquals(14, metrics.getFontSize());
+		assertEquals(14, metrics.widthOf(0x0600));
+		assertEquals(28, metrics.widthOf("\u0600\u0601"));
+	}
+
+	@Test
+	public void testAdvanceBeyondByte() throws IOException {
+		// 157.5 and 300.25 px: more than the 127 px of byte widths
+		final short[] advances = {
+				(short) ((157 << FRACTION_BITS) + 32), (short) ((300 << FRACTION_BITS) + 16)
+		};
+		final List<List<Integer>> ranges = Arrays.asList(IndexedFontMetricsTest.range(0x1C4, 0x1C5));
+		final ByteBuffer v3 = SimpleFontMetrics.toByteBufferV3(ranges, advances, new int[0], FRACTION_BITS,
+				"Wide", 0, 110);
+		final PreciseFontMetrics metrics = PreciseFontMetrics.fromByteBuffer(v3);
+		assertEquals(158, metrics.widthOf("\u01C4"));
+		assertEquals(300, metrics.widthOf("\u01C5"));
+		assertEquals(458, metrics.widthOf("\u01C4\u01C5"));
+	}
+
+	@Test
+	public void testFractionBits() {
+		SimpleFontMetrics.checkFractionBits(SimpleFontMetrics.MAX_FRACTION_BITS, 110);
+		SimpleFontMetrics.checkFractionBits(0, 4096);
+		final int[][] invalid = {
+				{
+						-1, 110
+				}, {
+						SimpleFontMetrics.MAX_FRACTION_BITS + 1, 12
+				}, {
+						8, 128 // One em is 32768
+				}, {
+						6, 512
+				}
+		};
+		for (final int[] args : invalid) {
+			try {
+				SimpleFontMetrics.checkFractionBits(args[0], args[1]);
+				fail("Accepted fractionBits=" + args[0] + " size=" + args[1]);
+			} catch (IllegalArgumentException expected) {
+			}
+		}
+		assertEquals(Short.MAX_VALUE, SimpleFontMetrics.toStoredAdvance(0x1C4, Short.MAX_VALUE, 8));
+		try {
+			SimpleFontMetrics.toStoredAdvance(0x1C4, 157 << 8, 8);
+			fail("Advance of 157 px accepted with 8 fractionBits");
+		} catch (IllegalArgumentException expected) {
+		}
+	}
+
+	@Test
+	public void testExportDoesNotClamp() throws IOException {
+		final SystemFontMetrics sys = SystemFontMetrics.getDefaultInstance();
+		Assume.assumeNotNull(sys);
+		final int wide = 0x1C4; // LATIN CAPITAL LETTER DZ WITH CARON
+		Assume.assumeTrue(sys.advanceOf(wide, 0) > 127);
+		final List<List<Integer>> ranges = Arrays.asList(IndexedFontMetricsTest.range(0x1C0, 0x1CF));
+		final File file = File.createTempFile("fontmetrics-", ".bin");
+		try {
+			try {
+				sys.exportFile(ranges, file.getAbsolutePath(), SimpleFontMetrics.FORMAT_V3, 8);
+				fail("Advance over 127.99 px exported with 8 fractionBits");
+			} catch (IllegalArgumentException expected) {
+			}
+			sys.exportFile(ranges, file.getAbsolutePath(), SimpleFontMetrics.FORMAT_V3, FRACTION_BITS);
+			final PreciseFontMetrics metrics = PreciseFontMetrics.importFile(file);
+			for (int codePoint = 0x1C0; codePoint <= 0x1CF; codePoint++) {
+				assertEquals(sys.advanceOf(codePoint, FRACTION_BITS), metrics.advanceOf(codePoint));
+			}
+			assertEquals(sys.advanceOf(wide, 0), metrics.widthOf(new String(Character.toChars(wide))));
+		} finally {
+			file.delete();
+		}
+	}
+
+	@Test
+	public void testExportSameAsSequential() throws IOException {
+		final SystemFontMetrics sys = SystemFontMetrics.getDefaultInstance();
+		Assume.assumeNotNull(sys);
+		final List<List<Integer>> ranges = Arrays.asList(IndexedFontMetricsTest.range(0x20, 0x7E),
+				IndexedFontMetricsTest.range(0x400, 0x4FF));
+		final List<List<Integer>> kerningRanges = Arrays.asList(IndexedFontMetricsTest.range('A', 'Z'));
+		final File file = File.createTempFile("fontmetrics-", ".bin");
+		try {
+			sys.exportFile(ranges, file.getAbsolutePath(), SimpleFontMetrics.FORMAT_V3, FRACTION_BITS,
+					kerningRanges);
+			final PreciseFontMetrics metrics = PreciseFontMetrics.importFile(file);
+			for (final List<Integer> r : ranges) {
+				for (int codePoint = r.get(0); codePoint <= r.get(1); codePoint++) {
+					assertEquals(sys.advanceOf(codePoint, FRACTION_BITS), metrics.advanceOf(codePoint));
+				}
+			}
+			for (int first = 'A'; first <= 'Z'; first++) {
+				for (int second = 'A'; second <= 'Z'; second++) {
+					final long sum = sys.advanceOf(first, FRACTION_BITS) //
+							+ sys.advanceOf(second, FRACTION_BITS) //
+							+ sys.kerningOf(first, second, FRACTION_BITS);
+					final String pair = new StringBuilder(2).appendCodePoint(first).appendCodePoint(second)
+							.toString();
+					assertEquals(pair, (int) ((sum + 32) >> FRACTION_BITS), metrics.widthOf(pair));
+				}
+			}
+		} finally {
+			file.delete();
+		}
+	}
+
+	@Test(expected = IOException.class)
+	public void testV3NotIndexed() throws IOException {
+		IndexedFontMetrics.wrap(syntheticV3(new int[0], 110));
+	}
+}
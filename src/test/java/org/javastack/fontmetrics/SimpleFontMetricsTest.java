@@ -0,0 +1,126 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package org.javastack.fontmetrics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import org.javastack.fontmetrics.SimpleFontMetrics.CachedFontMetrics;
+import org.javastack.fontmetrics.SimpleFontMetrics.Engine;
+import org.javastack.fontmetrics.SimpleFontMetrics.IndexedFontMetrics;
+import org.javastack.fontmetrics.SimpleFontMetrics.SystemFontMetrics;
+import org.junit.Assume;
+import org.junit.Test;
+
+/**
+ * Engine selection and {@link SimpleFontMetrics.Builder}
+ */
+public class SimpleFontMetricsTest {
+	private static final String TEXT = "Hello, café 中文 😀!";
+
+	private static final Engine configuredEngine(final String value) {
+		final String saved = System.getProperty(SimpleFontMetrics.ENGINE_PROPERTY);
+		try {
+			System.setProperty(SimpleFontMetrics.ENGINE_PROPERTY, value);
+			return SimpleFontMetrics.getConfiguredEngine();
+		} finally {
+			if (saved == null) {
+				System.clearProperty(SimpleFontMetrics.ENGINE_PROPERTY);
+			} else {
+				System.setProperty(SimpleFontMetrics.ENGINE_PROPERTY, saved);
+			}
+		}
+	}
+
+	@Test
+	public void testConfiguredEngine() {
+		assertEquals(Engine.INDEXED, configuredEngine("INDEXED"));
+		assertEquals(Engine.HYBRID, configuredEngine(" hybrid "));
+		assertEquals(Engine.SYSTEM, configuredEngine("System"));
+		assertEquals(Engine.AUTO, configuredEngine("auto"));
+		assertEquals(Engine.AUTO, configuredEngine("unknown"));
+	}
+
+	@Test
+	public void testIndexedEngine() {
+		final SimpleFontMetrics metrics = SimpleFontMetrics.builder().engine(Engine.INDEXED).build();
+		final IndexedFontMetrics table = IndexedFontMetrics.getDefaultInstance();
+		assertEquals(table.widthOf(TEXT), metrics.widthOf(TEXT));
+		assertEquals(table.widthOf('A'), metrics.widthOf('A'));
+	}
+
+	@Test
+	public void testHybridEngine() {
+		// Same widths as the table for codePoints in the table, with or without AWT
+		final SimpleFontMetrics metrics = SimpleFontMetrics.builder().engine(Engine.HYBRID).build();
+		final IndexedFontMetrics table = IndexedFontMetrics.getDefaultInstance();
+		assertEquals(table.widthOf("Hello World!"), metrics.widthOf("Hello World!"));
+	}
+
+	@Test
+	public void testSystemEngine() {
+		final SystemFontMetrics sys = SystemFontMetrics.getDefaultInstance();
+		Assume.assumeNotNull(sys);
+		final SimpleFontMetrics metrics = SimpleFontMetrics.builder().engine(Engine.SYSTEM).build();
+		assertEquals(sys.widthOf(TEXT), metrics.widthOf(TEXT));
+	}
+
+	@Test
+	public void testCache() {
+		final SimpleFontMetrics metrics = SimpleFontMetrics.builder() //
+				.engine(Engine.INDEXED) //
+				.cache(CachedFontMetrics.MIN_CHARS) //
+				.build();
+		assertEquals(IndexedFontMetrics.getDefaultInstance().widthOf(TEXT), metrics.widthOf(TEXT));
+		SimpleFontMetrics.builder().cache(0).cache(4096);
+		for (final int maxChars : new int[] {
+				-1, 1, CachedFontMetrics.MIN_CHARS - 1
+		}) {
+			try {
+				SimpleFontMetrics.builder().cache(maxChars);
+				fail("Accepted maxChars: " + maxChars);
+			} catch (IllegalArgumentException expected) {
+			}
+		}
+	}
+
+	@Test
+	public void testScaledWidth() {
+		final SimpleFontMetrics metrics = SimpleFontMetrics.builder().engine(Engine.INDEXED).build();
+		final int width = metrics.widthOf(TEXT);
+		assertEquals(width, metrics.widthOf(TEXT, SimpleFontMetrics.FONT_SIZE), 0f);
+		assertEquals(width * 2, metrics.widthOf(TEXT, SimpleFontMetrics.FONT_SIZE * 2), 0f);
+		assertEquals((width * 11f) / SimpleFontMetrics.FONT_SIZE, metrics.widthOf(TEXT, 11f), 1e-3f);
+		assertEquals(0f, metrics.widthOf("", 11f), 0f);
+	}
+
+	@Test
+	public void testFixedWidthRounding() {
+		final SimpleFontMetrics metrics = SimpleFontMetrics.builder().engine(Engine.INDEXED).build();
+		final int width = metrics.widthOf(TEXT);
+		assertEquals(width << 6, metrics.widthOfFixed(TEXT, SimpleFontMetrics.FONT_SIZE << 6));
+		// Scaled once per string and rounded half up: exact - 0.5 < fixed <= exact + 0.5
+		for (int fixedSize = 1; fixedSize <= (64 * 64); fixedSize++) {
+			final double exact = ((double) width * fixedSize) / SimpleFontMetrics.FONT_SIZE;
+			final int fixed = metrics.widthOfFixed(TEXT, fixedSize);
+			if ((fixed <= (exact - 0.5)) || (fixed > (exact + 0.5))) {
+				fail("fixedSize=" + fixedSize + " exact=" + exact + " fixed=" + fixed);
+			}
+		}
+		// Rounded once, not per glyph
+		final long i = metrics.widthOf('i');
+		assertEquals(((10 * i * 640) + 55) / 110, metrics.widthOfFixed("iiiiiiiiii", 640));
+	}
+}